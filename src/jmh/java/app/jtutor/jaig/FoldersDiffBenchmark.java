@@ -0,0 +1,59 @@
+package app.jtutor.jaig;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating the patch for the whole "prompt-parsed" folder,
+ * where only every 10th class was changed by the developer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FoldersDiffBenchmark {
+
+    @Param({"1", "50", "500"})
+    public int classes;
+
+    @Param({"200"})
+    public int lines;
+
+    private Path tempFolder;
+    private File originalFolder;
+    private File revisedFolder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticCode.setUp();
+        tempFolder = Files.createTempDirectory("jaig-bench");
+        originalFolder = tempFolder.resolve(SyntheticCode.PROMPT + "-parsed-old").toFile();
+        revisedFolder = tempFolder.resolve(SyntheticCode.PROMPT + "-parsed").toFile();
+        for (int i = 0; i < classes; i++) {
+            List<String> code = SyntheticCode.javaClass(i, lines);
+            String file = SyntheticCode.packageFolder(i) + "/" + SyntheticCode.className(i) + ".java";
+            SyntheticCode.write(originalFolder.toPath().resolve(file), SyntheticCode.withHeader(code));
+            SyntheticCode.write(revisedFolder.toPath().resolve(file),
+                    SyntheticCode.withHeader(i % 10 == 0 ? SyntheticCode.revise(code) : code));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticCode.delete(tempFolder);
+        SyntheticCode.tearDown();
+    }
+
+    @Benchmark
+    public List<String> generateFoldersDiff() throws IOException {
+        return PatchGenerator.INSTANCE.generateFoldersDiff(originalFolder, revisedFolder);
+    }
+}
@@ -0,0 +1,70 @@
+package app.jtutor.jaig;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating the patch for one file (the developer changed the file in "prompt-parsed")
+ * and applying this patch to the file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatchBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int lines;
+
+    private Path tempFolder;
+    private File originalFile;
+    private File revisedFile;
+    private String patchedFile;
+    private List<String> patchLines;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticCode.setUp();
+        tempFolder = Files.createTempDirectory("jaig-bench");
+        List<String> code = SyntheticCode.javaClass(0, lines);
+        String fileName = SyntheticCode.className(0) + ".java";
+        originalFile = SyntheticCode.write(
+                tempFolder.resolve(SyntheticCode.PROMPT + "-parsed-old").resolve(fileName),
+                SyntheticCode.withHeader(code)).toFile();
+        revisedFile = SyntheticCode.write(
+                tempFolder.resolve(SyntheticCode.PROMPT + "-parsed").resolve(fileName),
+                SyntheticCode.withHeader(SyntheticCode.revise(code))).toFile();
+        patchedFile = tempFolder.resolve("patched").resolve(fileName).toString();
+
+        // the patch of the file without "@File.java" line, like PatchApplier.patchFolder passes it
+        patchLines = generateFilesDiff();
+        patchLines.removeIf(line -> line.startsWith("@"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticCode.delete(tempFolder);
+        SyntheticCode.tearDown();
+    }
+
+    @Benchmark
+    public List<String> generateFilesDiff() throws IOException {
+        List<String> unifiedDiff = new ArrayList<>();
+        PatchGenerator.INSTANCE.generateFilesDiff(JAIGJavaHeader.INSTANCE, originalFile, revisedFile, unifiedDiff);
+        return unifiedDiff;
+    }
+
+    @Benchmark
+    public void patchFile() {
+        PatchApplier.INSTANCE.patchFile(originalFile.getPath(), patchedFile, patchLines);
+    }
+}
@@ -0,0 +1,60 @@
+package app.jtutor.jaig;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the GPT response: checking the response for auto-parse
+ * and splitting it into the java files of "prompt-parsed" folder.
+ *
+ * responseSize is "classes x lines of every class"
+ * parse splits the response with the line rules, astParse with the lexer (astParse in JAIG.yaml)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseParsingBenchmark {
+
+    @Param({"1x100", "1x10000", "50x100", "50x1000", "500x100"})
+    public String responseSize;
+
+    private String response;
+    private Path parsedFolder;
+    private final LifecyclePhasesProcessor lifecyclePhasesProcessor = new LifecyclePhasesProcessor();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticCode.setUp();
+        String[] size = responseSize.split("x");
+        response = SyntheticCode.response(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        parsedFolder = Files.createTempDirectory("jaig-bench").resolve(SyntheticCode.PROMPT + "-parsed");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticCode.delete(parsedFolder.getParent());
+        SyntheticCode.tearDown();
+    }
+
+    @Benchmark
+    public boolean checkGPTResponseForAutoParse() {
+        return lifecyclePhasesProcessor.checkGPTResponseForAutoParse(response);
+    }
+
+    @Benchmark
+    public String parse() {
+        return CodeParser.parse(SyntheticCode.RESPONSE_FILE, response, parsedFolder.toString());
+    }
+
+    @Benchmark
+    public String astParse() {
+        return AstCodeParser.parse(SyntheticCode.RESPONSE_FILE, response, parsedFolder.toString());
+    }
+}
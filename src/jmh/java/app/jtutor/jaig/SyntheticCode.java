@@ -0,0 +1,155 @@
+package app.jtutor.jaig;
+
+import app.jtutor.jaig.config.GlobalConfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic GPT responses and source files for the benchmarks.
+ * The generated classes look like the code returned by GPT:
+ * small methods with comments, ifs, closing brackets and a lot of repeated trivial lines.
+ */
+class SyntheticCode {
+    static final String PROMPT = "prompt";
+    static final String RESPONSE_FILE = PROMPT + "-response.txt";
+
+    // lines of one generated method
+    private static final int METHOD_LINES = 10;
+
+    private static final PrintStream console = System.out;
+
+    /**
+     * JAIG.yaml is not read by the benchmarks, the config is the same as in the default JAIG.yaml.
+     * The output of JAIG ("Writing file...", "Creating patch...") is not printed.
+     */
+    static void setUp() {
+        GlobalConfig.INSTANCE.setJavaFileNameRegexps(List.of(
+                "public class ([^\\s]+)",
+                "public abstract class ([^\\s]+)",
+                "class ([^\\s]+)",
+                "public interface ([^\\s]+)",
+                "public enum ([^\\s]+)",
+                "public record ([^\\s]+)"));
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static void tearDown() {
+        System.setOut(console);
+    }
+
+    /**
+     * GPT response with the classes, every class is in its own ```java block
+     */
+    static String response(int classes, int linesPerClass) {
+        StringBuilder response = new StringBuilder("Here is the implementation of the requested classes.\n\n");
+        for (int i = 0; i < classes; i++) {
+            response.append("Class ").append(className(i)).append(" contains the generated methods:\n");
+            response.append("```java\n");
+            for (String line : javaClass(i, linesPerClass)) {
+                response.append(line).append('\n');
+            }
+            response.append("```\n\n");
+        }
+        response.append("You can run the application after adding these classes to the project.\n");
+        return response.toString();
+    }
+
+    static String className(int index) {
+        return "Generated" + index;
+    }
+
+    static String packageFolder(int index) {
+        return "com/example/generated/p" + index % 10;
+    }
+
+    /**
+     * Java class of about the given number of lines
+     */
+    static List<String> javaClass(int index, int lines) {
+        List<String> code = new ArrayList<>();
+        code.add("package com.example.generated.p" + index % 10 + ";");
+        code.add("");
+        code.add("import java.util.ArrayList;");
+        code.add("import java.util.List;");
+        code.add("");
+        code.add("public class " + className(index) + " {");
+        code.add("    private final List<String> items = new ArrayList<>();");
+        for (int m = 0; code.size() + METHOD_LINES < lines; m++) {
+            code.add("");
+            code.add("    public int method" + m + "(int value) {");
+            code.add("        // step " + m + " of the calculation");
+            code.add("        int result = value * " + m + " + 1;");
+            code.add("        if (result > 0) {");
+            code.add("            items.add(\"item \" + result);");
+            code.add("        }");
+            code.add("        return result;");
+            code.add("    }");
+        }
+        code.add("}");
+        return code;
+    }
+
+    /**
+     * Revised version of javaClass: some lines are changed, inserted or deleted,
+     * like after a refactoring of the generated code by the developer
+     */
+    static List<String> revise(List<String> lines) {
+        List<String> revised = new ArrayList<>();
+        int method = 0;
+        for (String line : lines) {
+            if (line.startsWith("    public int method")) {
+                method++;
+            }
+            if (line.contains("// step ") && method % 7 == 5) {
+                continue; // deleted comment
+            }
+            if (line.contains("int result = ") && method % 7 == 0) {
+                revised.add(line.replace(" + 1;", " + 2;")); // changed line
+                continue;
+            }
+            revised.add(line);
+            if (line.contains("items.add(") && method % 7 == 3) {
+                revised.add("            System.out.println(\"added \" + result);"); // inserted line
+            }
+        }
+        return revised;
+    }
+
+    /**
+     * File like in "prompt-parsed" folder: the code with JAIG header
+     */
+    static List<String> withHeader(List<String> lines) {
+        List<String> result = new ArrayList<>(List.of(JAIGJavaHeader.INSTANCE.generate(RESPONSE_FILE).split("\n")));
+        result.addAll(lines);
+        return result;
+    }
+
+    static Path write(Path file, List<String> lines) {
+        try {
+            Files.createDirectories(file.getParent());
+            return Files.write(file, lines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void delete(Path folder) {
+        if (!Files.exists(folder)) return;
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
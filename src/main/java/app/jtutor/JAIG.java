@@ -1,6 +1,8 @@
 package app.jtutor;
 
 import app.jtutor.banner.BannerPrinter;
+import app.jtutor.daemon.DaemonClient;
+import app.jtutor.daemon.JAIGDaemon;
 import app.jtutor.jaig.JAIGUseCasesProcessor;
 import app.jtutor.jaig.RefactoringProcessor;
 import app.jtutor.jaig.config.GlobalConfig;
@@ -8,6 +10,28 @@ import app.jtutor.jaig.config.GlobalConfig;
 public class JAIG {
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals(JAIGDaemon.START_COMMAND)) {
+            JAIGDaemon.start();
+            return;
+        }
+
+        // if JAIG daemon is running in this project, it executes the command
+        Integer exitStatus = DaemonClient.execute(args);
+        if (exitStatus != null) {
+            System.exit(exitStatus);
+        }
+        if (args.length > 0 && args[0].equals(JAIGDaemon.STOP_COMMAND)) {
+            System.out.println("JAIG daemon is not running");
+            return;
+        }
+
+        run(args);
+    }
+
+    /**
+     * Executes JAIG for the selected file (in this process or in JAIG daemon)
+     */
+    public static void run(String[] args) {
         // here we can pass inputFileOrFolder for testing/debugging purposes
         //String inputFileOrFolder = "./demo/test.txt";
         // inputFileOrFolder must be null for production!
@@ -19,7 +43,7 @@ public class JAIG {
         if (inputFileOrFolder == null) {
             if (args.length == 0 || args[0].isEmpty()) {
                 System.err.println("You should select the file for which you want to apply JAIG");
-                System.exit(1);
+                exit(1);
             } else {
                 inputFileOrFolder = args[0];
             }
@@ -36,5 +60,15 @@ public class JAIG {
         }
     }
 
-}
+    /**
+     * Stops JAIG with the status, should be used instead of System.exit:
+     * JAIG daemon stops only the current command and keeps running
+     */
+    public static void exit(int status) {
+        if (JAIGDaemon.isRunning()) {
+            throw new JAIGDaemon.CommandExit(status);
+        }
+        System.exit(status);
+    }
 
+}
@@ -34,12 +34,13 @@ public class BannerPrinter {
 
     public static void printBanner() {
         // split to lines and add 10 spaces in the beginning of each line
-        banner = banner.replaceAll("(?m)^", "          ");
+        // (banner itself is not changed, it can be printed again by JAIG daemon)
+        String indentedBanner = banner.replaceAll("(?m)^", "          ");
         // print banner symbol by symbol
 
         PrintWriter out = new PrintWriter(System.out, true, StandardCharsets.UTF_8);
         
-        for (String line : banner.split("\n")) {
+        for (String line : indentedBanner.split("\n")) {
             for (char c : line.toCharArray()) {
                 if (c=='█') out.print(ANSI_DARK_RED +c+ANSI_RESET);
                 else if (c=='*') out.print(ANSI_RED +c+ANSI_RESET);
@@ -0,0 +1,116 @@
+package app.jtutor.daemon;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Sends the command to JAIG daemon (see JAIGDaemon) and prints its output
+ */
+public class DaemonClient {
+
+    /**
+     * @return exit status of the command or null if JAIG daemon is not running in this folder
+     */
+    public static Integer execute(String[] args) {
+        SocketChannel channel = connect();
+        if (channel == null) return null;
+        try (channel) {
+            DataOutputStream request = new DataOutputStream(new ChannelOutputStream(channel));
+            request.writeInt(JAIGDaemon.PROTOCOL_VERSION);
+            request.writeUTF(Paths.get("").toAbsolutePath().toString());
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+
+            Thread inputThread = new Thread(() -> sendInput(request), "jaig-client-input");
+            inputThread.setDaemon(true);
+            inputThread.start();
+
+            DataInputStream response = new DataInputStream(new JAIGDaemon.ChannelInputStream(channel));
+            while (true) {
+                byte kind = response.readByte();
+                if (kind == JAIGDaemon.EXIT) {
+                    return response.readInt();
+                }
+                byte[] bytes = new byte[response.readInt()];
+                response.readFully(bytes);
+                OutputStream out = kind == JAIGDaemon.ERR ? System.err : System.out;
+                out.write(bytes);
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Connection to JAIG daemon is lost: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    static boolean isDaemonRunning() {
+        SocketChannel channel = connect();
+        if (channel == null) return false;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // it is running anyway
+        }
+        return true;
+    }
+
+    private static SocketChannel connect() {
+        if (!Files.exists(JAIGDaemon.SOCKET)) return null;
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(JAIGDaemon.SOCKET));
+        } catch (IOException e) {
+            // the socket of the daemon which was killed
+            return null;
+        }
+    }
+
+    // the input of the client is sent to the daemon, for example, the answers to JAIG questions
+    private static void sendInput(DataOutputStream request) {
+        byte[] buffer = new byte[1024];
+        try {
+            int read;
+            while ((read = System.in.read(buffer)) >= 0) {
+                synchronized (request) {
+                    request.writeInt(read);
+                    request.write(buffer, 0, read);
+                    request.flush();
+                }
+            }
+            request.writeInt(-1);
+            request.flush();
+        } catch (IOException e) {
+            // the command is finished
+        }
+    }
+
+    private static class ChannelOutputStream extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
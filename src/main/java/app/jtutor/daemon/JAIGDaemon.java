@@ -0,0 +1,327 @@
+package app.jtutor.daemon;
+
+import app.jtutor.JAIG;
+import app.jtutor.jaig.PromptConsole;
+import app.jtutor.jaig.WorkspaceIndex;
+import app.jtutor.jaig.config.GlobalConfig;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * JAIG daemon: stays in memory and executes JAIG commands sent by DaemonClient
+ * over the Unix domain socket JAIG/jaig.sock, so the commands don't pay for the start of JVM,
+ * and HTTP connections, JAIG.yaml and the workspace index are reused.
+ *
+ * It is started in the content root with: java -jar JAIG/JAIG.jar --daemon
+ * and stopped with: java -jar JAIG/JAIG.jar --daemon-stop
+ *
+ * The commands are executed one at a time (like they would be executed from IDE),
+ * System.out, System.err and System.in of the command are connected to the client.
+ *
+ * Protocol:
+ * client => daemon: protocol version, working folder, arguments,
+ *                   then the input of the client: [length, bytes]... and -1 at the end of the input
+ * daemon => client: [OUT or ERR, length, bytes]... and [EXIT, status] at the end of the command
+ */
+public class JAIGDaemon {
+    public static final String START_COMMAND = "--daemon";
+    public static final String STOP_COMMAND = "--daemon-stop";
+    public static final Path SOCKET = Paths.get("JAIG/jaig.sock");
+
+    static final int PROTOCOL_VERSION = 1;
+    static final byte OUT = 1;
+    static final byte ERR = 2;
+    static final byte EXIT = 3;
+
+    private static volatile boolean running;
+
+    /**
+     * Thrown by JAIG.exit() to stop the current command of the daemon
+     */
+    public static class CommandExit extends Error {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        public CommandExit(int status) {
+            super("JAIG exit with status " + status, null, false, false);
+            this.status = status;
+        }
+    }
+
+    public static boolean isRunning() {
+        return running;
+    }
+
+    public static void start() {
+        if (DaemonClient.isDaemonRunning()) {
+            System.out.println("JAIG daemon is already running in this folder");
+            return;
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(SOCKET); // the socket of the daemon which was killed
+            server.bind(UnixDomainSocketAddress.of(SOCKET));
+            try {
+                // only the owner can send commands
+                Files.setPosixFilePermissions(SOCKET, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // not a POSIX file system
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(SOCKET);
+                } catch (IOException e) {
+                    // nothing to do, the socket is deleted by the next daemon
+                }
+            }));
+            warmUp();
+            running = true;
+            System.out.println("JAIG daemon is listening on " + SOCKET.toAbsolutePath());
+
+            while (running) {
+                try (SocketChannel channel = server.accept()) {
+                    execute(channel);
+                } catch (IOException e) {
+                    System.err.println("JAIG daemon: connection error: " + e.getMessage());
+                }
+            }
+            System.out.println("JAIG daemon is stopped");
+        } catch (IOException e) {
+            System.err.println("Cannot start JAIG daemon: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // config and the workspace index are ready before the first command,
+    // the HTTP client is created by the first request and its connections are kept in the pool
+    private static void warmUp() {
+        GlobalConfig.INSTANCE.parseYamlConfig();
+        WorkspaceIndex.INSTANCE.watch();
+    }
+
+    private static void execute(SocketChannel channel) throws IOException {
+        DataInputStream request = new DataInputStream(new ChannelInputStream(channel));
+        FrameOutputStream frames = new FrameOutputStream(channel);
+
+        if (request.readInt() != PROTOCOL_VERSION) {
+            frames.writeText(ERR, "JAIG daemon is running with another version of JAIG, stop it with " + STOP_COMMAND + "\n");
+            frames.writeExit(1);
+            return;
+        }
+        String workingFolder = request.readUTF();
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = request.readUTF();
+        }
+        if (!Paths.get(workingFolder).equals(Paths.get("").toAbsolutePath())) {
+            frames.writeText(ERR, "JAIG daemon is running in another folder: " + Paths.get("").toAbsolutePath() + "\n");
+            frames.writeExit(1);
+            return;
+        }
+        if (args.length > 0 && args[0].equals(STOP_COMMAND)) {
+            running = false;
+            frames.writeText(OUT, "JAIG daemon is stopped\n");
+            frames.writeExit(0);
+            return;
+        }
+
+        ClientInput input = new ClientInput(request, Thread.currentThread());
+        Thread inputThread = new Thread(input, "jaig-daemon-input");
+        inputThread.setDaemon(true);
+        inputThread.start();
+
+        Charset charset = Charset.defaultCharset();
+        PromptConsole.Session session = new PromptConsole.Session(
+                new PrintStream(new FrameStream(frames, OUT), true, charset),
+                new PrintStream(new FrameStream(frames, ERR), true, charset),
+                input);
+        int status = PromptConsole.attach(session, () -> executeCommand(args));
+        input.finish();
+        Thread.interrupted(); // the command could be interrupted by the client
+        frames.writeExit(status);
+    }
+
+    private static int executeCommand(String[] args) {
+        try {
+            JAIG.run(args);
+            return 0;
+        } catch (CommandExit e) {
+            return e.status;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return 1;
+        } finally {
+            WorkspaceIndex.INSTANCE.save();
+        }
+    }
+
+    /**
+     * Reads the input of the client; if the client is stopped (like Ctrl-C),
+     * the command is interrupted
+     */
+    private static class ClientInput extends InputStream implements Runnable {
+        private static final byte[] END = new byte[0];
+
+        private final DataInputStream request;
+        private final Thread commandThread;
+        private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+        private byte[] chunk;
+        private int position;
+        private boolean finished;
+
+        ClientInput(DataInputStream request, Thread commandThread) {
+            this.request = request;
+            this.commandThread = commandThread;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    int length = request.readInt();
+                    if (length < 0) break;
+                    byte[] bytes = new byte[length];
+                    request.readFully(bytes);
+                    chunks.add(bytes);
+                }
+                chunks.add(END);
+            } catch (IOException e) {
+                // the client is disconnected
+                chunks.add(END);
+                synchronized (this) {
+                    if (!finished) commandThread.interrupt();
+                }
+            }
+        }
+
+        // the command is finished, the daemon thread should not be interrupted anymore
+        synchronized void finish() {
+            finished = true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (chunk == null || position == chunk.length) {
+                if (chunk == END) return -1;
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("JAIG command is interrupted");
+                }
+                position = 0;
+                if (chunk == END) return -1;
+            }
+            int count = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            if (chunk != null && chunk != END && position < chunk.length) return chunk.length - position;
+            byte[] next = chunks.peek();
+            return next == null ? 0 : next.length;
+        }
+    }
+
+    /**
+     * Frames of the daemon => client protocol,
+     * they are written from several threads (command, Reactor, countdown)
+     */
+    private static class FrameOutputStream {
+        private final SocketChannel channel;
+
+        FrameOutputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        synchronized void write(byte kind, byte[] bytes, int offset, int length) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(5 + length);
+            frame.put(kind).putInt(length).put(bytes, offset, length).flip();
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+        }
+
+        void writeText(byte kind, String text) throws IOException {
+            byte[] bytes = text.getBytes(Charset.defaultCharset());
+            write(kind, bytes, 0, bytes.length);
+        }
+
+        synchronized void writeExit(int status) throws IOException {
+            ByteBuffer frame = ByteBuffer.allocate(5);
+            frame.put(EXIT).putInt(status).flip();
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+        }
+    }
+
+    private static class FrameStream extends OutputStream {
+        private final FrameOutputStream frames;
+        private final byte kind;
+
+        FrameStream(FrameOutputStream frames, byte kind) {
+            this.frames = frames;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            frames.write(kind, new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            frames.write(kind, b, off, len);
+        }
+    }
+
+    /**
+     * Reads the socket directly: the streams of Channels.newInputStream/newOutputStream
+     * block each other, and the input is read while the output is written
+     */
+    static class ChannelInputStream extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInputStream(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package app.jtutor.jaig;
+
+import app.jtutor.jaig.config.GlobalConfig;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Splits GPT response into .java files by the structure of the code (astParse in JAIG.yaml).
+ *
+ * Like CodeParser, every Java class should start with package ..., but the end of the class
+ * is found by the brackets: the class ends with the bracket which closes its body,
+ * so nested and inner classes, indented closing brackets and brackets in strings, text blocks,
+ * chars or comments don't split the class. The name of the file is the name of the first
+ * top-level type (class, interface, enum, record or @interface), javaFileNameRegexp is not used.
+ *
+ * Only the code from the package line to the end of the class is scanned,
+ * so the text between the classes doesn't have to be Java.
+ */
+class AstCodeParser {
+
+    private static final Set<String> TYPE_KEYWORDS = Set.of("class", "interface", "enum", "record");
+
+    static String parse(String inputFileName, String code, String parsedFolder) {
+        ContentManifest manifest = ContentManifest.load(parsedFolder);
+        String[] lines = code.split("\n");
+        int offset = 0;
+        int i = 0;
+        while (i < lines.length) {
+            String line = lines[i];
+            int indent = indent(line);
+            if (!line.startsWith("package ", indent) || line.indexOf(';') < 0) {
+                offset += lines[i].length() + 1;
+                i++;
+                continue;
+            }
+            String packageName = line.substring(indent + "package ".length(), line.indexOf(';')).strip();
+            JavaUnit unit = scanUnit(code, offset + line.indexOf(';') + 1);
+            if (unit.className() == null) {
+                // no class after the package, the next package line is searched in the same lines
+                offset += lines[i].length() + 1;
+                i++;
+                continue;
+            }
+            int lastLine = Math.min(i + unit.lastLine(), lines.length - 1);
+            CodeParser.writeFile(packageName.replace('.', '/'), unit.className() + ".java",
+                    Arrays.asList(lines).subList(i, lastLine + 1), parsedFolder, inputFileName, manifest);
+            for (; i <= lastLine; i++) {
+                offset += lines[i].length() + 1;
+            }
+        }
+        if (GlobalConfig.INSTANCE.isIncrementalParse()) manifest.deleteNotWritten();
+        manifest.save();
+        return parsedFolder;
+    }
+
+    /**
+     * @return true if the lexer finds a class after a package line,
+     * used instead of javaFileNameRegexp to decide if the response is parsed automatically
+     */
+    static boolean isAutoParsePossible(String code) {
+        int offset = 0;
+        for (String line : code.split("\n")) {
+            int indent = indent(line);
+            if (line.startsWith("package ", indent) && line.indexOf(';') >= 0
+                    && scanUnit(code, offset + line.indexOf(';') + 1).className() != null) {
+                return true;
+            }
+            offset += line.length() + 1;
+        }
+        return false;
+    }
+
+    private static int indent(String line) {
+        int indent = 0;
+        while (indent < line.length() && Character.isWhitespace(line.charAt(indent))) indent++;
+        return indent;
+    }
+
+    /**
+     * @param className - the first top-level type, null if it is not found
+     * @param lastLine - the line of the bracket which closes the class (relative to the package line)
+     */
+    private record JavaUnit(String className, int lastLine) {
+    }
+
+    /**
+     * Scans the code after the package declaration (from start) to the end of the first top-level type
+     */
+    private static JavaUnit scanUnit(String code, int start) {
+        String className = null;
+        String previousWord = null; // the word just before the current token
+        int depth = 0;
+        int line = 0;
+        int lastLine = 0; // the line of the last token
+        int length = code.length();
+        int p = start;
+        scan:
+        while (p < length) {
+            char c = code.charAt(p);
+            if (c == '\n') {
+                line++;
+                p++;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                p++;
+                continue;
+            }
+            lastLine = line;
+            char next = p + 1 < length ? code.charAt(p + 1) : 0;
+            if (c == '/' && next == '/') {
+                p = code.indexOf('\n', p);
+                if (p < 0) break;
+                continue;
+            }
+            if (c == '/' && next == '*') {
+                int end = code.indexOf("*/", p + 2);
+                end = end < 0 ? length : end + 2;
+                line += countLines(code, p, end);
+                p = end;
+                continue;
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                int end = p + 1;
+                while (end < length && Character.isJavaIdentifierPart(code.charAt(end))) end++;
+                // the words inside the class are not needed
+                String word = depth == 0 ? code.substring(p, end) : null;
+                if (word != null) {
+                    if (word.equals("package")) break; // the next class, the class of this package is not found
+                    if (className == null && previousWord != null && TYPE_KEYWORDS.contains(previousWord)) {
+                        className = word;
+                    }
+                }
+                previousWord = word;
+                p = end;
+                continue;
+            }
+            previousWord = null;
+            switch (c) {
+                case '{' -> depth++;
+                case '}' -> {
+                    depth--;
+                    if (depth == 0 && className != null) break scan;
+                    if (depth < 0) break scan; // not Java code
+                }
+                case '"' -> {
+                    if (next == '"' && p + 2 < length && code.charAt(p + 2) == '"') {
+                        int end = skipLiteral(code, p + 3, "\"\"\"");
+                        line += countLines(code, p, end);
+                        p = end;
+                        continue;
+                    }
+                    p = skipLiteral(code, p + 1, "\"");
+                    continue;
+                }
+                case '\'' -> {
+                    p = skipLiteral(code, p + 1, "'");
+                    continue;
+                }
+                default -> {
+                }
+            }
+            p++;
+        }
+        return new JavaUnit(className, lastLine);
+    }
+
+    /**
+     * @return position after the closing quote of the string, char or text block (from is after the opening quote),
+     * a string or a char is not longer than the line
+     */
+    private static int skipLiteral(String code, int from, String quote) {
+        boolean textBlock = quote.length() > 1;
+        int p = from;
+        while (p < code.length()) {
+            char c = code.charAt(p);
+            if (c == '\\') {
+                p += 2;
+            } else if (c == '\n' && !textBlock) {
+                return p;
+            } else if (code.startsWith(quote, p)) {
+                return p + quote.length();
+            } else {
+                p++;
+            }
+        }
+        return code.length();
+    }
+
+    private static int countLines(String code, int from, int to) {
+        int lines = 0;
+        for (int p = from; p < to; p++) {
+            if (code.charAt(p) == '\n') lines++;
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,158 @@
+package app.jtutor.jaig;
+
+import app.jtutor.daemon.JAIGDaemon;
+import app.jtutor.jaig.config.GlobalConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executes the prompts of a batch.
+ *
+ * If maxParallelPrompts (JAIG.yaml) is greater than 1, up to maxParallelPrompts prompts
+ * are sent to the AI at the same time (PHASES 1-2). Everything else is done in the batch order:
+ * 1) PHASE 0: rollbacks of all prompts are applied before the requests are generated
+ *    (in reverse order, so the last applied prompt is rolled back first)
+ * 2) PHASES 3-8: the responses are parsed, patched and written to src folder
+ *    one prompt after another, as soon as the response of the prompt is ready.
+ * The request of a prompt which includes the files written by the earlier prompts
+ * (see PromptScheduler.dependencies) is generated only after these prompts have written their results.
+ * Console output of every prompt is collected and printed as one group.
+ */
+public class BatchExecutor {
+
+    private final LifecyclePhasesProcessor lifecyclePhasesProcessor;
+
+    public BatchExecutor(LifecyclePhasesProcessor lifecyclePhasesProcessor) {
+        this.lifecyclePhasesProcessor = lifecyclePhasesProcessor;
+    }
+
+    public void execute(List<String> prompts) {
+        execute(prompts, GlobalConfig.INSTANCE.getMaxParallelPrompts());
+    }
+
+    /**
+     * @param prompts - prompts in the order in which the results should be written to src folder
+     * @param maxParallelPrompts - how many prompts are sent to AI at the same time
+     */
+    public void execute(List<String> prompts, int maxParallelPrompts) {
+        if (maxParallelPrompts <= 1 || prompts.size() <= 1) {
+            for (String prompt : prompts) {
+                printPromptHeader(prompt);
+                lifecyclePhasesProcessor.processPrompt(prompt);
+                printPromptFooter(prompt);
+            }
+            return;
+        }
+
+        System.out.println("Processing " + prompts.size() + " prompts, "
+                + maxParallelPrompts + " prompts at the same time");
+
+        // the dependencies are found before the rollback, which deletes -parsed folders
+        List<List<Integer>> dependencies = dependencies(prompts);
+
+        // PHASE 0: rollback previous results before processing prompts
+        rollbackBeforeBatch(prompts);
+
+        // PHASES 1-2: generate requests and get responses in parallel,
+        // a prompt waits until the prompts which it depends on are completed (PHASES 3-8)
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(maxParallelPrompts, prompts.size()));
+        List<CompletableFuture<BufferedRun>> runs = new ArrayList<>();
+        List<CompletableFuture<Void>> completed = new ArrayList<>();
+        for (int i = 0; i < prompts.size(); i++) {
+            String prompt = prompts.get(i);
+            CompletableFuture<?>[] waitFor = dependencies.get(i).stream()
+                    .map(completed::get).toArray(CompletableFuture[]::new);
+            runs.add(CompletableFuture.allOf(waitFor).thenApplyAsync(ignored -> {
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                LifecyclePhasesProcessor.PromptRun promptRun = PromptConsole.capture(output,
+                        () -> lifecyclePhasesProcessor.generateResponse(prompt));
+                return new BufferedRun(promptRun, output);
+            }, executor));
+            completed.add(new CompletableFuture<>());
+        }
+
+        // PHASES 3-8: process responses in the batch order
+        try {
+            for (int i = 0; i < prompts.size(); i++) {
+                String prompt = prompts.get(i);
+                printPromptHeader(prompt);
+                try {
+                    BufferedRun bufferedRun = runs.get(i).join();
+                    System.out.print(bufferedRun.output().toString());
+                    if (bufferedRun.promptRun() != null) {
+                        lifecyclePhasesProcessor.completePrompt(bufferedRun.promptRun());
+                    }
+                } catch (CompletionException e) {
+                    // JAIG.exit() in JAIG daemon stops the whole batch
+                    if (e.getCause() instanceof JAIGDaemon.CommandExit exit) throw exit;
+                    System.err.println("ERROR when processing prompt " + prompt + ": " + e.getCause().getMessage());
+                } finally {
+                    completed.get(i).complete(null);
+                }
+                printPromptFooter(prompt);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return for every prompt, the indexes of the earlier prompts whose results it includes
+     */
+    private static List<List<Integer>> dependencies(List<String> prompts) {
+        try {
+            return PromptScheduler.dependencies(prompts);
+        } catch (IOException | RuntimeException e) {
+            // every prompt waits for the previous one, like without maxParallelPrompts
+            System.out.println("WARNING: cannot find the dependencies of the prompts: " + e.getMessage());
+            List<List<Integer>> dependencies = new ArrayList<>();
+            for (int i = 0; i < prompts.size(); i++) {
+                dependencies.add(i == 0 ? List.of() : List.of(i - 1));
+            }
+            return dependencies;
+        }
+    }
+
+    private void rollbackBeforeBatch(List<String> prompts) {
+        // the prompts with #patch, #merge or #norollback turn off the rollback for all next prompts,
+        // so we find out which prompts would be rolled back if we processed them one by one
+        List<String> promptsToRollback = new ArrayList<>();
+        boolean applyRollback = GlobalConfig.INSTANCE.isApplyRollback();
+        for (String prompt : prompts) {
+            // the previous writing to src was interrupted, src is restored before the rollback
+            SrcTransaction.recover(SrcTransaction.journalFile(prompt));
+            if (prompt.endsWith("-response.txt")) continue;
+            if (applyRollback) promptsToRollback.add(prompt);
+            if (lifecyclePhasesProcessor.disablesRollback(prompt)) applyRollback = false;
+        }
+        for (int i = promptsToRollback.size() - 1; i >= 0; i--) {
+            lifecyclePhasesProcessor.rollbackBeforePrompt(promptsToRollback.get(i));
+        }
+    }
+
+    private static void printPromptHeader(String prompt) {
+        System.out.println();
+        System.out.println("********** JAIG: Batch Processing **********");
+        System.out.println("** PROMPT: "+prompt);
+        System.out.println("********************************************");
+        System.out.println();
+    }
+
+    private static void printPromptFooter(String prompt) {
+        System.out.println("********************************************");
+        System.out.println("** Finished processing prompt: "+prompt);
+        System.out.println("********************************************");
+        System.out.println();
+        System.out.println();
+    }
+
+    private record BufferedRun(LifecyclePhasesProcessor.PromptRun promptRun, ByteArrayOutputStream output) {
+    }
+}
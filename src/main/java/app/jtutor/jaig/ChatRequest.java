@@ -0,0 +1,49 @@
+package app.jtutor.jaig;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Request to OpenAI chat completions API
+ *
+ * @param seed - optional, null if it is not set in the config
+ */
+public record ChatRequest(String model, List<Message> messages, Double temperature,
+                          Integer seed, boolean stream) implements JsonBody {
+
+    public record Message(String role, String content) {
+    }
+
+    public static ChatRequest userMessage(String model, String content, Double temperature, Integer seed) {
+        return new ChatRequest(model, List.of(new Message("user", content)), temperature, seed, true);
+    }
+
+    @Override
+    public void writeTo(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("model", model);
+        generator.writeArrayFieldStart("messages");
+        for (Message message : messages) {
+            generator.writeStartObject();
+            generator.writeStringField("role", message.role());
+            generator.writeStringField("content", message.content());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        if (temperature != null) generator.writeNumberField("temperature", temperature);
+        if (seed != null) generator.writeNumberField("seed", seed);
+        generator.writeBooleanField("stream", stream);
+        generator.writeEndObject();
+    }
+
+    @Override
+    public int sizeHint() {
+        int size = 128;
+        for (Message message : messages) {
+            size += message.content().length() + 32;
+        }
+        return size;
+    }
+}
@@ -1,5 +1,7 @@
 package app.jtutor.jaig;
 
+import app.jtutor.JAIG;
+
 import javax.tools.JavaCompiler;
 import javax.tools.ToolProvider;
 import java.io.File;
@@ -37,7 +39,7 @@ public class CodeExecutor {
                         className = matcher.group(1);  // Group 1 is the first group captured by ()
                     } else {
                         System.out.println("No class name found on this line:\n" + line);
-                        System.exit(0);
+                        JAIG.exit(0);
                     }
                 }
                 if (!ignoreLines) {
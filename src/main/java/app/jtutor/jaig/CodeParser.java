@@ -5,13 +5,13 @@ import app.jtutor.jaig.config.GlobalConfig;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static app.jtutor.WindowsUtil.windowsCompatiblePath;
 
@@ -70,20 +70,54 @@ public class CodeParser {
     }
 
     public static String parse(String inputFileName, String code, String parsedFolder) {
-        List<String> lines = List.of(code.split("\n"));
+        if (GlobalConfig.INSTANCE.isAstParse()) {
+            return AstCodeParser.parse(inputFileName, code, parsedFolder);
+        }
+        ContentManifest manifest = ContentManifest.load(parsedFolder);
+        Splitter splitter = new Splitter(inputFileName, parsedFolder, manifest, false);
+        for (String line : code.split("\n")) {
+            splitter.accept(line);
+        }
+        splitter.finish();
+        if (GlobalConfig.INSTANCE.isIncrementalParse()) manifest.deleteNotWritten();
+        manifest.save();
+        return parsedFolder;
+    }
 
-        List<String> section = new ArrayList<>();
-        String packageName = null;
-        String className = null;
-        boolean inClass = false;
+    /**
+     * Splits the lines of the response into the java files of parsedFolder.
+     * The lines are accepted one by one, so the same splitting is used
+     * for the whole response (parse) and for the streamed response (StreamingCodeParser).
+     */
+    static class Splitter {
+        private final String inputFileName;
+        private final String parsedFolder;
+        private final ContentManifest manifest;
+        // write the class as soon as its closing bracket is found
+        private final boolean writeOnClose;
+
+        private final List<String> section = new ArrayList<>();
+        private String packageName = null;
+        private String className = null;
+        private boolean inClass = false;
+        // the section is written and not changed after that
+        private boolean written = false;
+
+        Splitter(String inputFileName, String parsedFolder, ContentManifest manifest, boolean writeOnClose) {
+            this.inputFileName = inputFileName;
+            this.parsedFolder = parsedFolder;
+            this.manifest = manifest;
+            this.writeOnClose = writeOnClose;
+        }
 
-        for (String line : lines) {
+        void accept(String line) {
             if (line.startsWith("package ")) {
                 // Write the previous section to a file
                 if (packageName != null && className != null) {
-                    writeFile(packageName, className, section, parsedFolder, inputFileName);
+                    if (!written) writeFile(packageName, className, section, parsedFolder, inputFileName, manifest);
                     section.clear();
                     className = null;
+                    written = false;
                 }
 
                 // Start a new section
@@ -93,8 +127,14 @@ public class CodeParser {
             else if (line.startsWith("}")) { // End of a class - we assume the correct indentation is used
                 section.add(line);
                 inClass = false;  // We are now outside a class
+                // the section can get one more closing bracket later, then it is written again
+                written = false;
+                if (writeOnClose && packageName != null && className != null) {
+                    writeFile(packageName, className, section, parsedFolder, inputFileName, manifest);
+                    written = true;
+                }
             } else if (className == null) { // trying to find the class name (or name for enum, interface, etc.)
-                className = findClassName(line);
+                className = GlobalConfig.INSTANCE.getJavaFileNameMatcher().findClassName(line);
                 if (className != null && className.length()>0) {
                     className += ".java";
                     inClass = true;
@@ -104,46 +144,73 @@ public class CodeParser {
             // Only add the line to the section if we are inside a class
             if (inClass) {
                 section.add(line);
+                written = false;
             }
         }
 
-        // Write the last section to a file
-        if (packageName != null && className != null) {
-            writeFile(packageName, className, section, parsedFolder, inputFileName);
-        }
-        return parsedFolder;
-    }
-
-    // Method to find the class name (or interface name, enum name, etc.)
-    // in the code line using the regex patterns in JAIG.yml (javaFileNameRegexp)
-    private static String findClassName(String line) {
-        List<String> javaFileNameRegexps = GlobalConfig.INSTANCE.getJavaFileNameRegexps();
-        for (String regex : javaFileNameRegexps) {
-            Pattern pattern = Pattern.compile("^" + regex + ".*\\{$");
-            Matcher matcher = pattern.matcher(line);
-            if (matcher.find()) {
-                return matcher.group(1);
+        void finish() {
+            // Write the last section to a file
+            if (packageName != null && className != null && !written) {
+                writeFile(packageName, className, section, parsedFolder, inputFileName, manifest);
             }
         }
-        return null;
     }
 
-    private static void writeFile(String packageName, String className,
-                                  List<String> section, String localCopyFolder,
-                                  String inputFile) {
+    static void writeFile(String packageName, String className,
+                          List<String> section, String localCopyFolder,
+                          String inputFile, ContentManifest manifest) {
         String fullDirectoryPathLocalCopy = localCopyFolder + "/" + packageName;
         // Windows path fix
         fullDirectoryPathLocalCopy = windowsCompatiblePath(fullDirectoryPathLocalCopy);
-        // adding the JAIG header with a path to the response from GPT
-        section.add(0, JAIGJavaHeader.INSTANCE.generate(inputFile));
-
         try {
+            // the same bytes as Files.write(path, lines) writes, they are hashed for the manifest
+            // adding the JAIG header with a path to the response from GPT
+            StringBuilder content = new StringBuilder(JAIGJavaHeader.INSTANCE.generate(inputFile))
+                    .append(System.lineSeparator());
+            for (String line : section) {
+                content.append(line).append(System.lineSeparator());
+            }
+            byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+            Path file = Paths.get(fullDirectoryPathLocalCopy, className);
+            // incrementalParse: the file is not touched if only the time in the header is changed
+            if (GlobalConfig.INSTANCE.isIncrementalParse() && hasSameCode(file, bytes)) {
+                System.out.println("Not changed " + className + " in " + fullDirectoryPathLocalCopy);
+                manifest.keep(file);
+                return;
+            }
             System.out.println("Writing " + className + " to " + fullDirectoryPathLocalCopy);
             Files.createDirectories(Paths.get(fullDirectoryPathLocalCopy));
-            Files.write(Paths.get(fullDirectoryPathLocalCopy, className), section, StandardCharsets.UTF_8);
+            // the file can be a hard link to the file of -parsed-old or -patched folder
+            CopyOnWrite.breakLink(file);
+            Files.write(file, bytes);
+            manifest.record(file, bytes);
         } catch (IOException e) {
             System.err.println("Error while writing to file: " + e.getMessage());
         }
     }
 
+    /**
+     * @return true if the file exists and has the same code as the content, the JAIG headers are not compared
+     */
+    static boolean hasSameCode(Path file, byte[] content) throws IOException {
+        // the headers have the same length (only the time is different), so the changed files are found by size
+        if (!Files.isRegularFile(file) || Files.size(file) != content.length) return false;
+        byte[] fileContent = Files.readAllBytes(file);
+        int fileCode = codeStart(fileContent);
+        int code = codeStart(content);
+        return Arrays.equals(fileContent, fileCode, fileContent.length, content, code, content.length);
+    }
+
+    // the position after the JAIG header (0 if there is no header)
+    private static int codeStart(byte[] content) {
+        byte[] headerEnd = "***/".getBytes(StandardCharsets.UTF_8);
+        if (content.length < headerEnd.length || content[0] != '/') return 0;
+        for (int i = 0; i + headerEnd.length <= content.length; i++) {
+            if (Arrays.equals(content, i, i + headerEnd.length, headerEnd, 0, headerEnd.length)) {
+                return i + headerEnd.length;
+            }
+        }
+        return 0;
+    }
+
 }
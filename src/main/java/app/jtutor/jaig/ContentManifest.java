@@ -0,0 +1,231 @@
+package app.jtutor.jaig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Content hashes of the files of a generated folder (like prompt-parsed),
+ * saved next to the folder: prompt-parsed.manifest
+ *
+ * The hash is recorded when JAIG writes the file. Later it is trusted while the size
+ * and the last modified time of the file are the same, so the unchanged files
+ * are compared with other files (see WorkspaceIndex.hash) without reading them.
+ *
+ * Line format: <SHA-256> <size> <last modified time, ms> <path relative to the folder>
+ */
+public class ContentManifest {
+
+    private record Entry(String hash, long size, long modifiedTime) {
+    }
+
+    private final Path folder;
+    private final Path manifestFile;
+    // relative path (with /) -> entry
+    private final Map<String, Entry> entries = new TreeMap<>();
+    // files written (or kept unchanged) since the manifest was loaded, see deleteNotWritten
+    private final Set<String> writtenFiles = new HashSet<>();
+    private boolean changed;
+
+    private ContentManifest(Path folder) {
+        this.folder = folder;
+        this.manifestFile = manifestFile(folder.toString());
+    }
+
+    public static Path manifestFile(String folder) {
+        return Paths.get(folder + ".manifest");
+    }
+
+    /**
+     * @return manifest of the folder (empty if it was not saved before or cannot be read)
+     */
+    public static ContentManifest load(String folder) {
+        ContentManifest manifest = new ContentManifest(Paths.get(folder));
+        if (!Files.exists(manifest.manifestFile)) return manifest;
+        try {
+            for (String line : Files.readAllLines(manifest.manifestFile, StandardCharsets.UTF_8)) {
+                String[] parts = line.split(" ", 4);
+                if (parts.length < 4) continue;
+                manifest.entries.put(parts[3],
+                        new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("WARNING: cannot read " + manifest.manifestFile + ", it will be created again");
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * The manifest follows the folder when it is renamed (like -parsed => -parsed-old)
+     */
+    public static void move(String folder, String newFolder) {
+        try {
+            Path manifestFile = manifestFile(folder);
+            if (Files.exists(manifestFile)) {
+                Files.move(manifestFile, manifestFile(newFolder), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(manifestFile(newFolder));
+            }
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot move " + manifestFile(folder) + " to " + manifestFile(newFolder));
+        }
+    }
+
+    /**
+     * The manifest is copied with the folder (incrementalParse: -parsed => -parsed-old),
+     * the hashes are valid if the files are copied with their last modified time
+     */
+    public static void copy(String folder, String newFolder) {
+        try {
+            Path manifestFile = manifestFile(folder);
+            if (Files.exists(manifestFile)) {
+                Files.copy(manifestFile, manifestFile(newFolder), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(manifestFile(newFolder));
+            }
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot copy " + manifestFile(folder) + " to " + manifestFile(newFolder));
+        }
+    }
+
+    public static void delete(String folder) {
+        try {
+            Files.deleteIfExists(manifestFile(folder));
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot delete " + manifestFile(folder));
+        }
+    }
+
+    /**
+     * Records the hash of the content which was just written to the file
+     */
+    public synchronized void record(Path file, byte[] content) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String relativePath = relativePath(file);
+        entries.put(relativePath,
+                new Entry(sha256(content), attributes.size(), attributes.lastModifiedTime().toMillis()));
+        writtenFiles.add(relativePath);
+        changed = true;
+    }
+
+    /**
+     * The file was not written because it has the same content (incrementalParse)
+     */
+    public synchronized void keep(Path file) {
+        writtenFiles.add(relativePath(file));
+    }
+
+    /**
+     * incrementalParse: the folder is not cleaned before parsing,
+     * so the files of the previous response which are not in the new one are deleted after parsing
+     */
+    public synchronized void deleteNotWritten() {
+        if (!Files.isDirectory(folder)) return;
+        try (Stream<Path> paths = Files.walk(folder)) {
+            // the files before their folders
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                if (Files.isDirectory(path)) {
+                    if (!path.equals(folder) && isEmptyDirectory(path)) Files.delete(path);
+                } else if (!writtenFiles.contains(relativePath(path))) {
+                    System.out.println("Deleting " + path + ", it is not in the response");
+                    Files.delete(path);
+                    entries.remove(relativePath(path));
+                    changed = true;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot delete the old files from " + folder + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean isEmptyDirectory(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.findAny().isEmpty();
+        }
+    }
+
+    /**
+     * @return SHA-256 of the file, the file is read only if it was changed after it was recorded
+     */
+    public synchronized String hash(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String relativePath = relativePath(file);
+        Entry entry = entries.get(relativePath);
+        if (entry != null && entry.size() == attributes.size()
+                && entry.modifiedTime() == attributes.lastModifiedTime().toMillis()) {
+            return entry.hash();
+        }
+        String hash;
+        try (InputStream input = Files.newInputStream(file)) {
+            MessageDigest digest = sha256();
+            byte[] buffer = new byte[64 * 1024];
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+            hash = HexFormat.of().formatHex(digest.digest());
+        }
+        entries.put(relativePath, new Entry(hash, attributes.size(), attributes.lastModifiedTime().toMillis()));
+        changed = true;
+        return hash;
+    }
+
+    /**
+     * @return true if the file of the folder and the other file (usually in src folder) have the same content
+     */
+    public boolean sameContent(Path file, Path otherFile) throws IOException {
+        return Files.size(file) == Files.size(otherFile)
+                && hash(file).equals(WorkspaceIndex.INSTANCE.hash(otherFile.toString()));
+    }
+
+    public synchronized void save() {
+        if (!changed || !Files.isDirectory(folder)) return;
+        List<String> lines = new ArrayList<>(entries.size());
+        entries.forEach((path, entry) -> {
+            // the files deleted from the folder are not kept
+            if (Files.exists(folder.resolve(path))) {
+                lines.add(entry.hash() + " " + entry.size() + " " + entry.modifiedTime() + " " + path);
+            }
+        });
+        try {
+            Files.write(manifestFile, lines, StandardCharsets.UTF_8);
+            changed = false;
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot write " + manifestFile);
+        }
+    }
+
+    private String relativePath(Path file) {
+        return folder.toAbsolutePath().normalize()
+                .relativize(file.toAbsolutePath().normalize())
+                .toString().replace('\\', '/');
+    }
+
+    private static String sha256(byte[] content) {
+        return HexFormat.of().formatHex(sha256().digest(content));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
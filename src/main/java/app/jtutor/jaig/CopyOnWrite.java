@@ -0,0 +1,69 @@
+package app.jtutor.jaig;
+
+import app.jtutor.jaig.config.GlobalConfig;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+/**
+ * Copies of the files which are made by hard links (copyOnWrite in JAIG.yaml):
+ * -patched and -parsed-old folders and the backups linked to the objects of SnapshotStore.
+ * A hard link is created in O(1) and doesn't take disk space, the content is shared with the source file.
+ *
+ * JAIG doesn't change these files in place: the files of -parsed and -patched are deleted before they are written
+ * (see breakLink, CodeParser.writeFile and PatchApplier.patchFile). It doesn't control the writes of the user,
+ * so src files are never linked (an editor can save them in place and the backup would be changed too),
+ * and a file of -parsed which is changed in place by the user changes its copy in -parsed-old.
+ *
+ * If a link cannot be created (e.g. the folders are on different disks
+ * or the file system doesn't support links), the file is copied.
+ */
+class CopyOnWrite {
+
+    private CopyOnWrite() {
+    }
+
+    /**
+     * Copies the file (the target is replaced), keeps the last modified time
+     */
+    static void copyFile(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        if (GlobalConfig.INSTANCE.isCopyOnWrite()) {
+            try {
+                Files.createLink(target, source);
+                return;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // not supported for these files, they are copied
+            }
+        }
+        Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    /**
+     * Copies all files of the folder to the target folder, like FileUtils.copyDirectory
+     * (the files which are only in the target folder are kept)
+     */
+    static void copyDirectory(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : paths.toList()) {
+                Path targetPath = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(targetPath);
+                } else {
+                    copyFile(path, targetPath);
+                }
+            }
+        }
+    }
+
+    /**
+     * The file will be written in place, so it should not share the content with its copies anymore
+     */
+    static void breakLink(Path file) throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
@@ -1,7 +1,11 @@
 package app.jtutor.jaig;
 
 
+import app.jtutor.jaig.config.GlobalConfig;
+
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Cleanup the folder
@@ -18,7 +22,29 @@ public class FolderCleanup {
             return;
         }
 
-        cleaningFolder(folder);
+        if (WorkspaceIndex.key(folderPath) != null) {
+            // subfolders and files are taken from the index, the folders which were not changed are not read
+            List<String> paths = new ArrayList<>(WorkspaceIndex.INSTANCE.folders(folderPath));
+            paths.addAll(WorkspaceIndex.INSTANCE.files(folderPath));
+            cleaningPaths(paths);
+        } else {
+            cleaningFolder(folder);
+        }
+        // the files of the deleted backup folders are not needed in JAIG/snapshots
+        if (GlobalConfig.INSTANCE.isSnapshotStore()) SnapshotStore.INSTANCE.gc();
+    }
+
+    private static void cleaningPaths(List<String> paths) {
+        for (String path : paths.stream().sorted().toList()) {
+            File file = new File(path);
+            // the contents of the deleted folder are already deleted
+            if (isGeneratedByJAIG(file.getName()) && file.exists()) {
+                System.out.println("Deleting: " + file.getAbsolutePath());
+                // delete folder and its contents
+                if (file.isDirectory()) deleteFolderContents(file);
+                file.delete();
+            }
+        }
     }
 
     private static void cleaningFolder(File folder) {
@@ -29,11 +55,7 @@ public class FolderCleanup {
                 if (file.isDirectory()) {
                     cleaningFolder(file);
                 }
-                String fileName = file.getName();
-                if (fileName.endsWith("-request.txt") || fileName.endsWith("-response.txt") ||
-                        fileName.endsWith("-backup") || fileName.endsWith("-parsed") ||
-                        fileName.endsWith("-patched") || fileName.endsWith("-merged") ||
-                        fileName.endsWith("-parsed-old") || fileName.endsWith(".rollback")) {
+                if (isGeneratedByJAIG(file.getName())) {
                     System.out.println("Deleting: " + file.getAbsolutePath());
                     // delete folder and its contents
                     if (file.isDirectory()) deleteFolderContents(file);
@@ -43,6 +65,15 @@ public class FolderCleanup {
         }
     }
 
+    private static boolean isGeneratedByJAIG(String fileName) {
+        return fileName.endsWith("-request.txt") || fileName.endsWith("-response.txt") ||
+                fileName.endsWith("-backup") || fileName.endsWith("-parsed") ||
+                fileName.endsWith("-patched") || fileName.endsWith("-merged") ||
+                fileName.endsWith("-parsed-old") || fileName.endsWith("-parsed-stream") ||
+                fileName.endsWith(".rollback") || fileName.endsWith(".rollback.bin") || fileName.endsWith(".manifest") ||
+                fileName.endsWith(".journal");
+    }
+
     private static void deleteFolderContents(File file) {
         File[] files = file.listFiles();
 
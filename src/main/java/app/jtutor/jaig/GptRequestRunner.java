@@ -1,26 +1,24 @@
 package app.jtutor.jaig;
 
+import app.jtutor.JAIG;
 import app.jtutor.jaig.config.GlobalConfig;
 import app.jtutor.jaig.config.LocalConfig;
 import com.azure.ai.openai.OpenAIAsyncClient;
-import com.azure.ai.openai.OpenAIClientBuilder;
 import com.azure.ai.openai.models.ChatCompletionsOptions;
 import com.azure.ai.openai.models.ChatRequestMessage;
 import com.azure.ai.openai.models.ChatRequestUserMessage;
 import com.azure.ai.openai.models.ChatResponseMessage;
-import com.azure.core.credential.AzureKeyCredential;
-import com.azure.core.http.netty.NettyAsyncHttpClientBuilder;
 import com.azure.core.util.CoreUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.UriBuilder;
 import reactor.core.publisher.Flux;
-import reactor.netty.http.client.HttpClient;
 import reactor.util.retry.Retry;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
@@ -31,12 +29,15 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class GptRequestRunner {
     private final LocalConfig localConfig;
+    // console of the prompt, the callbacks of the response are executed on the Reactor threads
+    private final PrintStream console = PromptConsole.out();
 
     public GptRequestRunner(LocalConfig localConfig) {
         this.localConfig = localConfig;
@@ -47,6 +48,14 @@ public class GptRequestRunner {
     }
 
     public String executeAndSaveGptRequest(String inputFilePath, String outputFilePath) {
+        return executeAndSaveGptRequest(inputFilePath, outputFilePath, null);
+    }
+
+    /**
+     * @param responseListener - gets the text of the response while it is streamed, can be null
+     */
+    public String executeAndSaveGptRequest(String inputFilePath, String outputFilePath,
+                                           Consumer<String> responseListener) {
         try {
             // Read the input file
             List<String> lines = Files.readAllLines(Path.of(inputFilePath), StandardCharsets.UTF_8);
@@ -57,7 +66,7 @@ public class GptRequestRunner {
             String inputFileContent = String.join("\n", lines);
 
             // Make request to OpenAI API
-            String response = gptRequest(inputFileContent);
+            String response = gptRequest(inputFileContent, responseListener);
 
             // Write the response to the output file in UTF-8 encoding
             Files.writeString(Path.of(outputFilePath), response,
@@ -71,69 +80,17 @@ public class GptRequestRunner {
     }
 
 
-    public static String[] javaKeywords = {
-            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
-            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
-            "for", "if", "goto", "implements", "import", "instanceof", "int", "interface", "long", "native",
-            "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp",
-            "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void",
-            "volatile", "while"
-    };
-
-    public static boolean isJavaKeyword(String input) {
-        for (String keyword : javaKeywords) {
-            if (keyword.equals(input)) {
-                return true;
-            }
-        }
-        return false;
-    }
-    public static final String ANSI_BOLD = "\u001B[1m";
-    public static final String ANSI_BLUE = "\u001B[34m";
-    public static final String ANSI_RESET = "\u001B[0m";
-    public static final String ANSI_GREEN = "\u001B[32m";
-    public static final String ANSI_RED = "\u001B[31m";
-    public static final String ANSI_GRAY = "\u001B[90m";
-
-    public static int countDoubleQuotes(String input) {
-        int count = 0;
-        for (int i = 0; i < input.length(); i++) {
-            if (input.charAt(i) == '"') {
-                count++;
-            }
-        }
-        return count;
-    }
-
-    static class LineSymbolsCounter {
-        private static final int LINE_WIDTH = 40;
-        PrintWriter writer;
-        int counter = 0;
-
-        public LineSymbolsCounter(PrintWriter writer) {
-            this.writer = writer;
-        }
-
-        public void add(String line) {
-            if (line.contains("\n")) {
-                counter = 0;
-            } else {
-                counter += line.length();
-                if (counter> LINE_WIDTH && (
-                        line.startsWith(" ") || line.endsWith(" ") || line.endsWith("\t") ||
-                        line.endsWith("{") || line.endsWith("}") || line.endsWith(";") ||
-                        line.endsWith("]") || line.endsWith(")"))) {
-                    writer.println();
-                    counter = 0;
-                }
-            }
-        }
+    public String gptRequest(String inputText) {
+        return gptRequest(inputText, null);
     }
 
-    public String gptRequest(String inputText) {
+    /**
+     * @param responseListener - gets the text of the response while it is streamed, can be null
+     */
+    public String gptRequest(String inputText, Consumer<String> responseListener) {
         if (GlobalConfig.INSTANCE.getOpenAIApiKey() == null && GlobalConfig.INSTANCE.getKey() == null) {
             System.err.println("You need to provide key or openAIApiKey. Please add it to JAIG.yaml");
-            System.exit(-1);
+            JAIG.exit(-1);
         }
 
         String model = GlobalConfig.INSTANCE.getModel();
@@ -155,92 +112,47 @@ public class GptRequestRunner {
             System.out.println("Using model: " + model);
         }
 
-        StringBuilder result = new StringBuilder();
-        inputText = inputText.replaceAll("\\\"", "\\\\\"");
-        inputText = inputText.replaceAll("\\\n", "\\\\n");
-        inputText = inputText.replaceAll("\\\t", " ");
-        inputText = inputText.replaceAll("```", " ");
-        inputText = inputText.replace("\\", "\\\\");
-        // Replace double quotes
-        inputText = inputText.replace("\"", "\\\"");
-
-        Flux<String> eventStream;
-        if (GlobalConfig.INSTANCE.isGptProxy()) {
-             eventStream = getJTutorResponseEventStream(inputText, model, temperature);
-        } else {
-            eventStream = getEventStream(GlobalConfig.INSTANCE.getEndpoint(), inputText, model, temperature);
+        // the same request (body, API, model, temperature and seed) returns the cached response
+        String cacheKey = null;
+        Flux<String> eventStream = null;
+        if (GlobalConfig.INSTANCE.isResponseCache() && (localConfig == null || !localConfig.isNoCache())) {
+            String endpoint = GlobalConfig.INSTANCE.getEndpoint();
+            cacheKey = ResponseCache.key(inputText, endpoint, GlobalConfig.INSTANCE.isGptProxy(),
+                    endpoint.contains("azure") ? GlobalConfig.INSTANCE.getDeploymentIdOrModel() : null,
+                    model, temperature, getSeed());
+            String cachedResponse = ResponseCache.INSTANCE.get(cacheKey);
+            if (cachedResponse != null) {
+                System.out.println("Using cached response (use #nocache in the prompt to send the request again)");
+                eventStream = ResponseCache.replay(cachedResponse);
+                cacheKey = null; // no need to save it again
+            }
+        }
+        if (eventStream == null) {
+            if (GlobalConfig.INSTANCE.isGptProxy()) {
+                eventStream = getJTutorResponseEventStream(inputText, model, temperature);
+            } else {
+                eventStream = getEventStream(GlobalConfig.INSTANCE.getEndpoint(), inputText, model, temperature);
+            }
         }
-        AtomicInteger doubleQuotesCount = new AtomicInteger();
         LoadingProcess loadingProcess = new LoadingProcess();
-        loadingProcess.start();
-        PrintWriter out = new PrintWriter(System.out, true, StandardCharsets.UTF_8);
-        LineSymbolsCounter lineSymbolsCounter = new LineSymbolsCounter(out);
-
-        AtomicBoolean excludeLine = new AtomicBoolean(false);
-        AtomicBoolean commentLine = new AtomicBoolean(false);
-        AtomicBoolean commentMultiLine = new AtomicBoolean(false);
-        AtomicBoolean firstLine = new AtomicBoolean(false);
+        boolean headless = GlobalConfig.INSTANCE.isHeadlessConsole();
+        if (!headless) loadingProcess.start();
+        // the response is printed from the Reactor threads, so we keep the console of the prompt
+        PrintWriter out = new PrintWriter(PromptConsole.out(), true, StandardCharsets.UTF_8);
+        ResponseRenderer renderer = new ResponseRenderer(out, !headless, responseListener);
+
+        AtomicBoolean completed = new AtomicBoolean(false);
         try {
-            eventStream.doOnNext(
-                    content -> {
+            eventStream.doOnNext(content -> {
                         loadingProcess.stop();
-                        if (!firstLine.get()) {
-                            firstLine.set(true);
-                            out.println(ANSI_BOLD+
-                                    "========================== AI RESPONSE ==========================\n"
-                                    +ANSI_RESET);
-                        }
-
-                        // exclude line if it starts from ```
-                        // because GPT marks code blocks with ```java ... ```
-                        if (content.startsWith("``") || content.startsWith("`[[[newline]]]")) {
-                            excludeLine.set(true);
-                        } else {
-                            boolean skipLine = excludeLine.get();
-                            if (content.contains("[[[newline]]]") ||
-                                    (!GlobalConfig.INSTANCE.isGptProxy() && content.contains("\n"))) {
-                                excludeLine.set(false);
-                            }
-                            if (skipLine) {
-                                return;
-                            }
-                        }
-                        if (excludeLine.get()) return;
-
-                        String ss = content.replace("[[[space]]]", " ");
-                        String resultString = ss; // string without ANSI codes
-                        ss = ss.replace("{", ANSI_BLUE + '{' + ANSI_RESET);
-                        ss = ss.replace("}", ANSI_BLUE + '}' + ANSI_RESET);
-                        doubleQuotesCount.addAndGet(countDoubleQuotes(ss));
-
-                        if (isJavaKeyword(ss.trim()) && !commentLine.get() && ! commentMultiLine.get()) {
-                            result.append(resultString);
-                            out.print(ANSI_BLUE + ss + ANSI_RESET);
-                        } else {
-                            if (doubleQuotesCount.get() % 2 == 1) {
-                                String sss = ss.replace("[[[newline]]]", "\\n");
-                                result.append(resultString.replace("[[[newline]]]", "\\n"));
-                                lineSymbolsCounter.add(sss);
-                                sss = highlightComments(sss, commentLine, commentMultiLine);
-                                out.print(ANSI_GREEN + sss);
-                            } else {
-                                String sss = ss.replace("[[[newline]]]", "\n");
-                                result.append(resultString.replace("[[[newline]]]", "\n"));
-                                lineSymbolsCounter.add(sss);
-                                sss = highlightComments(sss, commentLine, commentMultiLine);
-                                if (sss.contains("\"")) {
-                                    out.print(sss + ANSI_RESET);
-                                } else {
-                                    out.print(sss);
-                                }
-                            }
-                        }
-                        out.flush();
+                        renderer.accept(content);
                     })
             .retryWhen(Retry.backoff(3, Duration.ofSeconds(1)))
             .doOnError(error -> out.println("\n\nConnection error: \n" + error.getMessage()))
-            .doOnComplete(() -> out.println(ANSI_RESET+ANSI_BOLD+
-                    "\n\n====================== END OF AI RESPONSE ======================"+ANSI_RESET))
+            .doOnComplete(() -> {
+                completed.set(true);
+                renderer.complete();
+            })
             .doFinally(signalType -> loadingProcess.stop())
             .blockLast();
         } catch (Exception e) {
@@ -248,51 +160,36 @@ public class GptRequestRunner {
             System.out.println(e.getCause().getMessage());
         }
 
-        return result.toString();
-    }
+        String result = renderer.getResult();
+        if (cacheKey != null && completed.get() && !result.isEmpty()) {
+            ResponseCache.INSTANCE.put(cacheKey, result,
+                    GlobalConfig.INSTANCE.getResponseCacheMaxSizeMb() * 1024L * 1024L);
+        }
 
-    private Flux<String> getOpenAIResponseEventStream(String inputText, String model, Double temperature) {
-        HttpClient httpClient = HttpClient.create()
-                .responseTimeout(Duration.ofMinutes(2));  // Set the timeout
-
-        WebClient client = WebClient.builder()
-                .clientConnector(new ReactorClientHttpConnector(httpClient))
-                .baseUrl(GlobalConfig.INSTANCE.getEndpoint())
-                .defaultHeader("Authorization", "Bearer " + GlobalConfig.INSTANCE.getOpenAIApiKey()) // Authorization header with Bearer token
-                .defaultHeader("Content-Type", "application/json")
-                .build();
+        return result;
+    }
 
-        // extract seed from local or global config if it is provided
-        String seedString = "";
-        Integer seed = GlobalConfig.INSTANCE.getSeed();
+    // seed from the local config has a higher priority
+    private Integer getSeed() {
         if (localConfig != null && localConfig.getSeed() != null) {
-            seed = localConfig.getSeed();
-        }
-        if (seed != null) {
-            seedString = "\"seed\": " + seed + ",";
+            return localConfig.getSeed();
         }
+        return GlobalConfig.INSTANCE.getSeed();
+    }
 
-        // Creating the request body
-        String requestBody = """
-            {
-                "model": "%s",
-                "messages": [
-                    {
-                        "role": "user",
-                        "content": "%s"
-                    }
-                ],
-                "temperature": %f,
-                %s
-                "stream": true
-            }
-            """.formatted(model, inputText, temperature, seedString);
+    private Flux<String> getOpenAIResponseEventStream(String inputText, String model, Double temperature) {
+        WebClient client = HttpClients.webClient(GlobalConfig.INSTANCE.getEndpoint(), Map.of(
+                "Authorization", "Bearer " + GlobalConfig.INSTANCE.getOpenAIApiKey(), // Authorization header with Bearer token
+                "Content-Type", "application/json"));
+
+        // the body is written with the JSON generator, so the prompt is sent without any changes
+        ChatRequest request = ChatRequest.userMessage(model, inputText, temperature, getSeed());
 
         Flux<String> eventStream = client.post()
-                .bodyValue(requestBody)
+                .body(request.asBodyInserter())
                 .retrieve()
                 .bodyToFlux(String.class)
-                .doOnError(error -> System.out.println("\nError when sending request: " + error.getMessage()));
+                .doOnError(error -> console.println("\nError when sending request: " + error.getMessage()));
 
         return eventStream;
     }
@@ -300,17 +197,11 @@ public class GptRequestRunner {
     private Flux<String> getAzureOpenAIResponseEventStream(String inputText, Double temperature){
 
         //Azure OpenAI Client
-        OpenAIAsyncClient client = new OpenAIClientBuilder()
-                .httpClient(new NettyAsyncHttpClientBuilder().responseTimeout(Duration.ofMinutes(2)).build())
-                .credential(new AzureKeyCredential(GlobalConfig.INSTANCE.getOpenAIApiKey()))
-                .endpoint(GlobalConfig.INSTANCE.getEndpoint())
-                .buildAsyncClient();
+        OpenAIAsyncClient client = HttpClients.azureOpenAIClient(
+                GlobalConfig.INSTANCE.getEndpoint(), GlobalConfig.INSTANCE.getOpenAIApiKey());
 
         // extract seed from local or global config if it is provided
-        Integer seed = GlobalConfig.INSTANCE.getSeed();
-        if (localConfig != null && localConfig.getSeed() != null) {
-            seed = localConfig.getSeed();
-        }
+        Integer seed = getSeed();
 
         //inputText's content from the .txt file will be used as ChatRequestMessage
         List<ChatRequestMessage> chatMessages = new ArrayList<>();
@@ -365,7 +256,7 @@ public class GptRequestRunner {
                 return contentNode.asText(); // Extracts the content as String
             } catch (Exception e) {
                 // Handle parsing exceptions
-                e.printStackTrace();
+                e.printStackTrace(console);
                 return "";
             }
         })
@@ -383,21 +274,15 @@ public class GptRequestRunner {
     }
 
     private Flux<String> getJTutorResponseEventStream(String inputText, String model, Double temperature) {
-        HttpClient httpClient = HttpClient.create()
-                .responseTimeout(Duration.ofMinutes(2));  // Set the timeout
-
-        WebClient client = WebClient.builder()
-                .clientConnector(new ReactorClientHttpConnector(httpClient))
-                .baseUrl("https://jtutor.app")
-                .defaultHeader("Origin", "https://jtutor.app")
-                .defaultHeader("Content-Type", "application/json")
-                .build();
+        WebClient client = HttpClients.webClient("https://jtutor.app", Map.of(
+                "Origin", "https://jtutor.app",
+                "Content-Type", "application/json"));
 
         Flux<String> eventStream = client.post()
                 .uri(getJTutorUri(model, temperature,
                         GlobalConfig.INSTANCE.getOpenAIApiKey(),
                         GlobalConfig.INSTANCE.getKey()))
-                .bodyValue("{\"request\":\""+ inputText +"\"}")
+                .body(new ProxyRequest(inputText).asBodyInserter())
                 .retrieve()
                 .bodyToFlux(String.class);
         return eventStream;
@@ -413,24 +298,18 @@ public class GptRequestRunner {
                 .build();
     }
 
-    public String highlightComments(String ss, AtomicBoolean commentLine, AtomicBoolean commentMultiLine) {
-        if (ss.trim().startsWith("//")) {
-            commentLine.set(true);
-            ss = ss.replace("//", ANSI_GRAY + "\u2215\u2215");
+    // request to JTutor proxy: {"request": "<prompt>"}
+    private record ProxyRequest(String request) implements JsonBody {
+        @Override
+        public void writeTo(JsonGenerator generator) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("request", request);
+            generator.writeEndObject();
         }
 
-        if (ss.trim().startsWith("/*")) {
-            commentMultiLine.set(true);
-            ss = ss.replace("/*", ANSI_GRAY + "/*");
-        }
-        if (commentLine.get() && ss.contains("\n")) {
-            ss = ss.replace("\n", "\n" + ANSI_RESET);
-            commentLine.set(false);
-        }
-        if (commentMultiLine.get() && ss.contains("*/")) {
-            ss = ss.replace("*/", "*/" + ANSI_RESET);
-            commentMultiLine.set(false);
+        @Override
+        public int sizeHint() {
+            return request.length() + 16;
         }
-        return ss;
     }
 }
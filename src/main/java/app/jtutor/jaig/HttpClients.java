@@ -0,0 +1,79 @@
+package app.jtutor.jaig;
+
+import app.jtutor.jaig.config.GlobalConfig;
+import com.azure.ai.openai.OpenAIAsyncClient;
+import com.azure.ai.openai.OpenAIClientBuilder;
+import com.azure.core.credential.AzureKeyCredential;
+import com.azure.core.http.netty.NettyAsyncHttpClientBuilder;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of HTTP clients.
+ *
+ * All requests to AI share one connection pool (httpMaxConnections, httpKeepAliveSeconds in JAIG.yaml),
+ * so the connection, TLS handshake and DNS lookup are reused by the next prompts
+ * of a batch or the next requests of a refactoring dialog.
+ * HTTPS endpoints are called with HTTP/2 if the server supports it (negotiated with ALPN).
+ */
+public class HttpClients {
+
+    private static final Duration RESPONSE_TIMEOUT = Duration.ofMinutes(2);
+
+    private static final Map<String, WebClient> webClients = new ConcurrentHashMap<>();
+    private static final Map<String, OpenAIAsyncClient> azureClients = new ConcurrentHashMap<>();
+
+    private static ConnectionProvider connectionProvider;
+
+    private static synchronized ConnectionProvider connectionProvider() {
+        if (connectionProvider == null) {
+            connectionProvider = ConnectionProvider.builder("jaig")
+                    .maxConnections(GlobalConfig.INSTANCE.getHttpMaxConnections())
+                    .maxIdleTime(Duration.ofSeconds(GlobalConfig.INSTANCE.getHttpKeepAliveSeconds()))
+                    .build();
+        }
+        return connectionProvider;
+    }
+
+    private static HttpClient httpClient(boolean http2) {
+        HttpClient httpClient = HttpClient.create(connectionProvider())
+                .keepAlive(true)
+                .responseTimeout(RESPONSE_TIMEOUT);
+        return http2 ? httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11) : httpClient;
+    }
+
+    /**
+     * @return WebClient for the base URL with the default headers,
+     * it is created once and shared by all requests with the same base URL and headers
+     */
+    public static WebClient webClient(String baseUrl, Map<String, String> defaultHeaders) {
+        return webClients.computeIfAbsent(baseUrl + defaultHeaders, key -> {
+            WebClient.Builder builder = WebClient.builder()
+                    .clientConnector(new ReactorClientHttpConnector(
+                            httpClient(baseUrl.startsWith("https:"))))
+                    .baseUrl(baseUrl);
+            defaultHeaders.forEach(builder::defaultHeader);
+            return builder.build();
+        });
+    }
+
+    /**
+     * @return Azure OpenAI client for the endpoint and the key, it is created once
+     */
+    public static OpenAIAsyncClient azureOpenAIClient(String endpoint, String apiKey) {
+        return azureClients.computeIfAbsent(endpoint + "|" + apiKey, key ->
+                new OpenAIClientBuilder()
+                        // Azure SDK uses HTTP/1.1 with the shared connection pool
+                        .httpClient(new NettyAsyncHttpClientBuilder(httpClient(false)).build())
+                        .credential(new AzureKeyCredential(apiKey))
+                        .endpoint(endpoint)
+                        .buildAsyncClient());
+    }
+}
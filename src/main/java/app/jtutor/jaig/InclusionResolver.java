@@ -0,0 +1,101 @@
+package app.jtutor.jaig;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Finds the files for the inclusion lines of a prompt (./file or /file, wildcards are allowed).
+ *
+ * The folders of all inclusions are read once from WorkspaceIndex: every pattern is cut to the folder
+ * before the first wildcard (./src/main/java/** => ./src/main/java), nested folders are skipped.
+ * The found files are kept in a sorted index, and the glob matcher of every pattern
+ * is compiled once and checked only against the files from its folder.
+ */
+public class InclusionResolver {
+
+    // paths of the found files (like ./src/main/java/A.java), sorted
+    private final List<String> index;
+    private final Map<String, PathMatcher> matchers = new HashMap<>();
+
+    /**
+     * @param patterns - glob patterns of the inclusions (see LifecyclePhasesProcessor.inclusionPattern)
+     */
+    public InclusionResolver(List<String> patterns) {
+        TreeSet<String> roots = new TreeSet<>();
+        for (String pattern : patterns) {
+            roots.add(literalPrefix(normalizeSeparators(pattern)));
+        }
+
+        List<String> files = new ArrayList<>();
+        List<String> walkedRoots = new ArrayList<>();
+        for (String root : roots) {
+            // the files of the nested folders are found by the walk of the parent folder
+            if (walkedRoots.stream().anyMatch(walkedRoot -> isInFolder(root, walkedRoot))) continue;
+            walkedRoots.add(root);
+            // the files outside the content root are never included
+            if (root.startsWith("./..")) continue;
+            files.addAll(WorkspaceIndex.INSTANCE.files(root));
+        }
+        Collections.sort(files);
+        this.index = files;
+    }
+
+    /**
+     * @param pattern - glob pattern of the inclusion (one of the patterns of the constructor)
+     * @return files which match the pattern, sorted by path
+     */
+    public List<Path> matches(String pattern) {
+        String normalizedPattern = normalizeSeparators(pattern);
+        // glob: using glob syntax for matching
+        // https://docs.oracle.com/javase/7/docs/api/java/nio/file/FileSystem.html#getPathMatcher(java.lang.String)
+        PathMatcher matcher = matchers.computeIfAbsent(normalizedPattern,
+                p -> FileSystems.getDefault().getPathMatcher("glob:" + p));
+        String root = literalPrefix(normalizedPattern);
+
+        List<Path> result = new ArrayList<>();
+        // the pattern without wildcards is the path of the file
+        if (Collections.binarySearch(index, root) >= 0 && matcher.matches(Paths.get(root))) {
+            result.add(Paths.get(root));
+        }
+        // the files of the root folder are next to each other in the sorted index
+        String folderPrefix = root.equals(".") ? "./" : root + "/";
+        int from = Collections.binarySearch(index, folderPrefix);
+        if (from < 0) from = -from - 1;
+        for (int i = from; i < index.size() && index.get(i).startsWith(folderPrefix); i++) {
+            Path file = Paths.get(index.get(i));
+            if (matcher.matches(file)) result.add(file);
+        }
+        return result;
+    }
+
+    /**
+     * @return the part of the glob pattern before the first wildcard, cut to the folder
+     * (the pattern itself if there are no wildcards)
+     */
+    static String literalPrefix(String pattern) {
+        int wildcard = 0;
+        while (wildcard < pattern.length() && "*?[{".indexOf(pattern.charAt(wildcard)) < 0) {
+            wildcard++;
+        }
+        if (wildcard == pattern.length()) return pattern;
+        int folderEnd = pattern.lastIndexOf('/', wildcard);
+        return folderEnd > 0 ? pattern.substring(0, folderEnd) : ".";
+    }
+
+    private static boolean isInFolder(String path, String folder) {
+        return folder.equals(".") || path.equals(folder) || path.startsWith(folder + "/");
+    }
+
+    private static String normalizeSeparators(String path) {
+        return path.replace(File.separator, "/");
+    }
+}
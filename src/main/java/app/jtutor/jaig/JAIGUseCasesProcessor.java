@@ -6,7 +6,6 @@ import org.apache.commons.io.FileUtils;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -14,13 +13,15 @@ import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.stream.Stream;
 
 /**
  * This class implements 6 possible use cases when JAIG can be applied to:
  *
  * 1) FOLDER -> find all .txt files, generate .batch with .txt file on every line
  * 2) .yaml file -> read configuration and create requests from the template
- * 3) .batch file -> treat every line as a prompt and sequentially execute every prompt
+ * 3) .batch file -> treat every line as a prompt and execute every prompt
+ *                  (sequentially or, if maxParallelPrompts > 1, in parallel: see BatchExecutor)
  * 4) .patch file -> apply patch to the <prompt>-parsed folder
  * 5) .java file -> analyze files in src/main/java and generate patch based on difference with
  *                  <prompt>-parsed folder
@@ -51,6 +52,7 @@ public class JAIGUseCasesProcessor {
                         What do you want to do with the folder %s?
                         1) Create batch file with all prompts (.txt files) in the folder
                         2) Cleanup the folder from all artifacts except prompts
+                        3) Run all prompts in the folder (independent prompts are processed in parallel)
                         """, inputFileOrFolder);
                 String answer = new Scanner(System.in).nextLine();
                 if (answer.equals("1")) {
@@ -58,6 +60,9 @@ public class JAIGUseCasesProcessor {
                 } else if (answer.equals("2")) {
                     FolderCleanup.cleanFolder(inputFileOrFolder);
                     return;
+                } else if (answer.equals("3")) {
+                    processFolderSchedule(inputFileOrFolder);
+                    return;
                 }
             }
         }
@@ -72,7 +77,12 @@ public class JAIGUseCasesProcessor {
         if (processPatch(inputFileOrFolder)) return;
 
         // OPTION 5: .rollback file
-        if (processRollback(inputFileOrFolder, GlobalConfig.INSTANCE.getSrcFolder())) return;
+        if (processRollback(inputFileOrFolder, GlobalConfig.INSTANCE.getSrcFolder())) {
+            // the files of the deleted backup are deleted from JAIG/snapshots if no other prompt has them
+            // (not after the rollback before the prompt: the prompt will back up the same files again)
+            if (GlobalConfig.INSTANCE.isSnapshotStore()) SnapshotStore.INSTANCE.gc();
+            return;
+        }
 
         // OPTION 6: if we didn't branch to any of the previous "special cases" -
         // we process inputFileOrFolder as a prompt
@@ -82,6 +92,7 @@ public class JAIGUseCasesProcessor {
         System.out.println("\nJAIG can be applied to:\n"+
                         """
 1) FOLDER -> find all .txt files, generate .batch with .txt file on every line
+             or run all prompts of the folder in parallel waves (see PromptScheduler)
 2) .yaml file with specified template -> read configuration and create requests from the template
 3) .batch file -> treat every line as a prompt and sequentially execute every prompt
 4) .patch file -> apply patch to the <prompt>-parsed folder
@@ -98,12 +109,7 @@ public class JAIGUseCasesProcessor {
         if (inputFileFile.isDirectory()) {
             System.out.println("Creating batch for directory: "+ inputFileOrFolder);
             try {
-                Set<Path> txtFiles = new TreeSet<>();
-                Files.walk(Paths.get(inputFileOrFolder))
-                        .filter(f->f.toString().endsWith(".txt") &&
-                                !f.toString().contains("-response") &&
-                                !f.toString().contains("-request"))
-                        .forEach(txtFiles::add);
+                Set<Path> txtFiles = findPromptFiles(inputFileOrFolder);
 
                 // If there are txt files, write them to the batch file
                 if (!txtFiles.isEmpty()) {
@@ -130,6 +136,44 @@ public class JAIGUseCasesProcessor {
         return false;
     }
 
+    /**
+     * Finds all prompts (.txt files except -request.txt and -response.txt) in the folder
+     *
+     * @return prompt files sorted by path, so the prompts in folders NN_name are in the NN order
+     */
+    static Set<Path> findPromptFiles(String folder) throws IOException {
+        Set<Path> txtFiles = new TreeSet<>();
+        try (Stream<Path> files = Files.walk(Paths.get(folder))) {
+            files.filter(f->f.toString().endsWith(".txt") &&
+                            !f.toString().contains("-response") &&
+                            !f.toString().contains("-request"))
+                    .forEach(txtFiles::add);
+        }
+        return txtFiles;
+    }
+
+    private void processFolderSchedule(String inputFileOrFolder) {
+        try {
+            List<String> prompts = findPromptFiles(inputFileOrFolder).stream()
+                    .map(Path::toString)
+                    .toList();
+            if (prompts.isEmpty()) {
+                System.out.println("There were no .txt files found with potential prompts");
+                return;
+            }
+            // the files of the project are changed by the prompts, so the index is updated by the events
+            WorkspaceIndex.INSTANCE.watch();
+            new PromptScheduler(lifecyclePhasesProcessor).execute(prompts);
+            System.out.println();
+            System.out.println("********** JAIG: Folder Processing **********");
+            System.out.println("***************** finished ******************");
+            System.out.println("**** NOW YOU CAN RUN THE PROGRAM AND TEST ****");
+            System.out.println("*********************************************");
+        } catch (IOException e) {
+            System.out.println("Cannot process folder " + inputFileOrFolder);
+        }
+    }
+
     private static boolean processYaml(String inputFileOrFolder) {
         if (inputFileOrFolder.endsWith(".yaml") || inputFileOrFolder.endsWith(".yml")) {
             TemplateProcessor.process(inputFileOrFolder);
@@ -142,22 +186,13 @@ public class JAIGUseCasesProcessor {
         if (inputFileOrFolder.endsWith(".batch")) {
             try {
                 Path batchFile = Paths.get(inputFileOrFolder);
-                List<String> prompts = Files.lines(batchFile).toList();
-                for (String prompt : prompts) {
-                    if (prompt.trim().isEmpty()) continue;
-                    if (prompt.startsWith("#")) continue;
-                    System.out.println();
-                    System.out.println("********** JAIG: Batch Processing **********");
-                    System.out.println("** PROMPT: "+prompt);
-                    System.out.println("********************************************");
-                    System.out.println();
-                    lifecyclePhasesProcessor.processPrompt(prompt);
-                    System.out.println("********************************************");
-                    System.out.println("** Finished processing prompt: "+prompt);
-                    System.out.println("********************************************");
-                    System.out.println();
-                    System.out.println();
-                }
+                List<String> prompts = Files.lines(batchFile)
+                        .filter(prompt -> !prompt.trim().isEmpty())
+                        .filter(prompt -> !prompt.startsWith("#"))
+                        .toList();
+                // the files of the project are changed by the prompts, so the index is updated by the events
+                WorkspaceIndex.INSTANCE.watch();
+                new BatchExecutor(lifecyclePhasesProcessor).execute(prompts);
                 System.out.println();
                 System.out.println("********** JAIG: Batch Processing **********");
                 System.out.println("**************** finished ******************");
@@ -182,7 +217,7 @@ public class JAIGUseCasesProcessor {
             System.out.println("Applying patch "+patchFilePath);
             System.out.println("to folder "+parsedFolderPath);
             try {
-                FileUtils.copyDirectory(new File(parsedFolderPath), new File(patchedFolderPath));
+                CopyOnWrite.copyDirectory(Path.of(parsedFolderPath), Path.of(patchedFolderPath));
             } catch (IOException e) {
                 System.out.println("cannot copy directory "+ inputFileOrFolder +" to directory "+patchedFolderPath);
             }
@@ -220,9 +255,6 @@ public class JAIGUseCasesProcessor {
             System.out.println("Rollback file "+rollbackFile+" is found");
             System.out.println("Applying rollback "+rollbackFile);
             try {
-                List<String> lines = Files.readAllLines(Paths.get(rollbackFile), StandardCharsets.UTF_8);
-                boolean deleteRollback = true;
-
                 String toReplace = "-parsed.rollback";
                 if (rollbackFile.contains("-full")) {
                     toReplace = "-full.rollback";
@@ -239,46 +271,13 @@ public class JAIGUseCasesProcessor {
                 from    generated_requests/enrollment2/04_controller/controller-parsed/com/luxoft/eduplatform/controllers/EnrollmentController.java
                 Delete  ./rest/prepare-test-enrollments.http
                  */
-                // analyze lines
-                for (int i=0; i<lines.size(); i++) {
-                    String line = lines.get(i);
-                    if (line.startsWith("Restore")) {
-                        // extract file name to restore
-                        String fileNameToRestore = lines.get(i).replaceFirst("Restore\\s+", "");
-                        i++; // go to next line
-                        // extract file name to restore from
-                        String fileNameToRestoreFrom = lines.get(i).replaceFirst("from\\s+", "");
-                        if (!new File(fileNameToRestoreFrom).exists()) {
-                            System.out.println("Cannot restore file "+fileNameToRestore+" from "+fileNameToRestoreFrom);
-                            System.out.println("File "+fileNameToRestoreFrom+" doesn't exist");
-                            deleteRollback = false;
-                            break;
-                        }
-                        // copy file from fileNameToRestoreFrom to fileNameToRestore with replacement
-                        FileUtils.copyFile(new File(fileNameToRestoreFrom), new File(fileNameToRestore));
-                        System.out.println("Restored file "+fileNameToRestore+"\n"+
-                                            " from "+fileNameToRestoreFrom);
-                    } else if (line.startsWith("Delete")) {
-                        // extract file name to delete
-                        String fileNameToDelete = lines.get(i).replaceFirst("Delete\\s+", "");
-                        // delete file
-                        FileUtils.deleteQuietly(new File(fileNameToDelete));
-                        System.out.println("Deleted file "+fileNameToDelete);
-                        deleteEmptyUpperFolders(fileNameToDelete);
-                        // delete file in parsed folder
-                        String fileNameToDeleteInParsedFolder = fileNameToDelete.replace(srcFolder, parsedFolder);
-                        FileUtils.deleteQuietly(new File(fileNameToDeleteInParsedFolder));
-                        System.out.println("Deleted file "+fileNameToDeleteInParsedFolder);
-                        deleteEmptyUpperFolders(fileNameToDeleteInParsedFolder);
-                    } else {
-                        System.out.println("Cannot parse rollback file: line "+(i+1)+" is not recognized:");
-                        System.out.println(line);
-                        deleteRollback = false;
-                    }
-                }
+                // the operations are applied by the folders in parallel,
+                // the files which are the same as their backups are not copied (see RollbackManifest)
+                boolean deleteRollback = RollbackManifest.load(rollbackFile).restore(srcFolder, parsedFolder);
 
                 if (deleteRollback) {
                     // delete rollback file, backup folder, parsed folder, patch folder
+                    RollbackManifest.delete(rollbackFile);
                     if (FileUtils.deleteQuietly(new File(rollbackFile))) {
                         System.out.println("Deleted file "+ rollbackFile +".");
                     } else {
@@ -293,6 +292,7 @@ public class JAIGUseCasesProcessor {
                     // also delete -parsed.rollback
                     if (rollbackFile.contains("-full")) {
                         String parsedRollbackFile = rollbackFile.replace("-full","-parsed");
+                        RollbackManifest.delete(parsedRollbackFile);
                         boolean rollbackDeleted = new File(parsedRollbackFile).delete();
                         if (rollbackDeleted) {
                             System.out.println("Rollback file "+parsedRollbackFile+ " was deleted");
@@ -329,7 +329,7 @@ public class JAIGUseCasesProcessor {
         }
     }
 
-    private static void deleteEmptyUpperFolders(String fileNameToDelete) {
+    static void deleteEmptyUpperFolders(String fileNameToDelete) {
         // go to all upper folders and delete it if it is empty
         File folderToDelete = new File(fileNameToDelete).getParentFile();
         while (folderToDelete != null && folderToDelete.exists() && folderToDelete.list().length == 0) {
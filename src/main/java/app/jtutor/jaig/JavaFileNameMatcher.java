@@ -0,0 +1,84 @@
+package app.jtutor.jaig;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The patterns of javaFileNameRegexp (JAIG.yaml) compiled into one regular expression,
+ * together with the package line:
+ *   ^(?:(package .*;)|(?:(regexp 1)|(regexp 2)|...).*\{)$
+ * It is compiled once when JAIG.yaml is loaded (GlobalConfig.setJavaFileNameRegexps),
+ * so every line of the response is checked by one matcher instead of compiling the patterns again.
+ *
+ * The regexps are tried in the order of JAIG.yaml, the file name is the first group of the regexp which matched.
+ */
+public class JavaFileNameMatcher {
+
+    private final Pattern pattern;
+    // the group of every regexp and the group of the file name in it (-1 if the regexp has no groups)
+    private final int[] regexpGroups;
+    private final int[] nameGroups;
+
+    public JavaFileNameMatcher(List<String> javaFileNameRegexps) {
+        List<String> regexps = javaFileNameRegexps == null ? List.of() : javaFileNameRegexps;
+        regexpGroups = new int[regexps.size()];
+        nameGroups = new int[regexps.size()];
+        StringBuilder alternatives = new StringBuilder();
+        int group = 2; // group 1 is the package
+        for (int i = 0; i < regexps.size(); i++) {
+            String regex = regexps.get(i);
+            if (i > 0) alternatives.append('|');
+            alternatives.append('(').append(regex).append(')');
+            int groupCount = Pattern.compile(regex).matcher("").groupCount();
+            regexpGroups[i] = group;
+            nameGroups[i] = groupCount > 0 ? group + 1 : -1;
+            group += 1 + groupCount;
+        }
+        // without the regexps only the package lines are found
+        String classLine = regexps.isEmpty() ? "" : "|(?:" + alternatives + ").*\\{";
+        pattern = Pattern.compile("^(?:(package .*;)" + classLine + ")$");
+    }
+
+    /**
+     * @return the name of the class (or interface name, enum name, etc.) declared in the line,
+     * null if the line is not a declaration
+     */
+    public String findClassName(String line) {
+        Matcher matcher = pattern.matcher(line);
+        if (!matcher.find() || matcher.group(1) != null) return null;
+        return nameGroup(matcher);
+    }
+
+    /**
+     * Checks that there are equal number of package lines (start from "package " and end on ";")
+     * and class declaration lines (javaFileNameRegexp, end with "{"), the response is read in one pass.
+     *
+     * @return true if the response can be parsed automatically
+     */
+    public boolean isAutoParsePossible(String response) {
+        int packages = 0;
+        int classes = 0;
+        Matcher matcher = pattern.matcher(response);
+        int start = 0;
+        while (start <= response.length()) {
+            int end = response.indexOf('\n', start);
+            if (end < 0) end = response.length();
+            if (matcher.region(start, end).matches()) {
+                if (matcher.group(1) != null) packages++;
+                else classes++;
+            }
+            start = end + 1;
+        }
+        return packages > 0 && packages == classes;
+    }
+
+    private String nameGroup(Matcher matcher) {
+        for (int i = 0; i < regexpGroups.length; i++) {
+            if (matcher.group(regexpGroups[i]) != null) {
+                return nameGroups[i] > 0 ? matcher.group(nameGroups[i]) : null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,52 @@
+package app.jtutor.jaig;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Request body which is written with the streaming JSON generator
+ * directly to the buffer of the HTTP request (without building the JSON string first).
+ */
+public interface JsonBody {
+    JsonFactory JSON_FACTORY = new JsonFactory();
+
+    void writeTo(JsonGenerator generator) throws IOException;
+
+    /**
+     * @return approximate size of the JSON in bytes, used for the initial size of the buffer
+     */
+    int sizeHint();
+
+    default BodyInserter<JsonBody, ReactiveHttpOutputMessage> asBodyInserter() {
+        return new BodyInserter<>() {
+            @Override
+            public Mono<Void> insert(ReactiveHttpOutputMessage message, Context context) {
+                message.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+                return message.writeWith(Mono.fromCallable(() -> write(message)));
+            }
+        };
+    }
+
+    private DataBuffer write(ReactiveHttpOutputMessage message) {
+        DataBuffer buffer = message.bufferFactory().allocateBuffer(sizeHint());
+        try (OutputStream outputStream = buffer.asOutputStream();
+             JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream, JsonEncoding.UTF8)) {
+            writeTo(generator);
+        } catch (IOException e) {
+            DataBufferUtils.release(buffer);
+            throw new UncheckedIOException(e);
+        }
+        return buffer;
+    }
+}
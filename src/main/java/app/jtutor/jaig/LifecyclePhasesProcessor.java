@@ -1,5 +1,6 @@
 package app.jtutor.jaig;
 
+import app.jtutor.JAIG;
 import app.jtutor.jaig.config.GlobalConfig;
 import app.jtutor.jaig.config.LocalConfig;
 import org.apache.commons.io.FileUtils;
@@ -7,11 +8,11 @@ import org.apache.commons.io.FileUtils;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static app.jtutor.WindowsUtil.windowsCompatiblePath;
@@ -32,18 +33,119 @@ import static app.jtutor.jaig.JAIGUseCasesProcessor.processRollback;
  */
 public class LifecyclePhasesProcessor {
 
-    private boolean pathMatches(String path, String pattern) {
-        // Normalize and convert file separators to forward slashes for the glob pattern
-        String normalizedPattern = pattern.replace(File.separator, "/");
+    /**
+     * @return true if the line of the prompt includes files:
+     * ./file (relative to the prompt folder) or /file (relative to the content root)
+     */
+    static boolean isInclusion(String line) {
+        return line.startsWith("./") || line.startsWith("../") || line.startsWith("/");
+    }
 
-        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + normalizedPattern);
-        // glob: using glob syntax for matching
-        // https://docs.oracle.com/javase/7/docs/api/java/nio/file/FileSystem.html#getPathMatcher(java.lang.String)
-        return matcher.matches(Paths.get(path));
+    /**
+     * Converts the inclusion line of the prompt to the glob pattern
+     * which is matched against the paths of the files in the content root, like ./src/main/java/...
+     *
+     * @param line - inclusion line: ./file (relative to the prompt folder) or /file (relative to the content root)
+     * @param promptFolder - folder of the prompt
+     */
+    static String inclusionPattern(String line, String promptFolder) {
+        boolean isRelativePath = line.startsWith("./") || line.startsWith("../");
+        boolean isPathFromContentRoot = line.startsWith("/");
+        String pathPrefix = ""; // this will be prepended to the line with path
+        if (isRelativePath) pathPrefix = promptFolder + "/";
+        if (isPathFromContentRoot) pathPrefix = ".";
+        // Windows does not support wildcards ** in normalize(), so we need to temporally remove it
+        line = line.replaceAll("\\*\\*", "all_files_wildcard");
+        line = line.replaceAll("\\*", "wildcard");
+        String pattern = Path.of(pathPrefix + line).normalize().toString();
+        // we restore the wildcards
+        return "./" + pattern.replaceAll("all_files_wildcard", "\\*\\*")
+                .replaceAll("wildcard", "\\*");
+    }
+
+    /**
+     * State of the prompt between the generation of the response (PHASES 1-2)
+     * and the processing of the response (PHASES 3-8)
+     *
+     * @param inputFile - prompt file (or -response.txt file if we process the saved response)
+     * @param localConfig - configuration collected from the prompt directives
+     * @param processingResponse - true if we process not a prompt, but the response from GPT
+     * @param gptResponse - response from GPT (null if it was not requested)
+     * @param streamingParser - classes parsed while the response was streamed (null if streamingParse is off)
+     */
+    record PromptRun(String inputFile, LocalConfig localConfig,
+                     boolean processingResponse, String gptResponse,
+                     StreamingCodeParser streamingParser) {
     }
 
     // PROCESSING prompt
     public void processPrompt(String inputFile) {
+        // the previous writing to src was interrupted, src is restored before the rollback
+        SrcTransaction.recover(SrcTransaction.journalFile(inputFile));
+
+        // PHASE 0: rollback previous results before processing prompt
+        if (GlobalConfig.INSTANCE.isApplyRollback()) {
+            rollbackBeforePrompt(inputFile);
+        }
+
+        // PHASES 1-2: generate the request and get the response
+        PromptRun promptRun = generateResponse(inputFile);
+
+        // PHASES 3-8: parse, patch and write the response
+        if (promptRun != null) {
+            completePrompt(promptRun);
+        }
+    }
+
+    /**
+     * PHASE 0: rollback previous results before processing prompt
+     *
+     * @param inputFile - prompt file
+     */
+    void rollbackBeforePrompt(String inputFile) {
+        try {
+            // if the prompt contains #norollback, #merge, #merge-incomplete or #patch, we should not apply rollback
+            boolean applyRollback = Files.readAllLines(Paths.get(inputFile)).stream()
+                    .noneMatch(l -> l.startsWith("#norollback") ||
+                            l.startsWith("#merge") || l.startsWith("#patch"));
+
+            if (applyRollback) {
+                String rollbackFile = inputFile.replace(".txt", "-parsed.rollback");
+                if (new File(rollbackFile).exists()) {
+                    processRollback(rollbackFile, GlobalConfig.INSTANCE.getSrcFolder());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks if the prompt contains directives which turn off the rollback
+     * for all next prompts (see PHASE 1: #merge, #merge-incomplete:, #patch, #norollback)
+     *
+     * @param inputFile - prompt file
+     */
+    boolean disablesRollback(String inputFile) {
+        try {
+            return Files.readAllLines(Paths.get(inputFile)).stream()
+                    .anyMatch(l -> l.startsWith("#merge-incomplete:") ||
+                            (l.startsWith("#merge") && !l.startsWith("#merge-incomplete")) ||
+                            l.startsWith("#patch") || l.startsWith("#norollback"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * PHASES 1-2: generate the request from the prompt and send it to the AI.
+     * These phases do not change files in the src folder,
+     * therefore, they can be executed for several prompts at the same time.
+     *
+     * @param inputFile - prompt file (or -response.txt)
+     * @return state of the prompt or null if the request cannot be generated
+     */
+    PromptRun generateResponse(String inputFile) {
         // create new localConfig for this prompt
         LocalConfig localConfig = new LocalConfig();
 
@@ -55,68 +157,31 @@ public class LifecyclePhasesProcessor {
         String responseFile = inputFile.replace(".txt","-response.txt");
         boolean autoRunJavaCode = false;
 
-        String SRC_FOLDER = GlobalConfig.INSTANCE.getSrcFolder();
-        String TEST_FOLDER = GlobalConfig.INSTANCE.getTestFolder();
-
         String gptResponse = null;
 
-        // PHASE 0: rollback previous results before processing prompt
-        if (GlobalConfig.INSTANCE.isApplyRollback()) {
-            Path inputPath = Paths.get(inputFile);
-            try {
-                List<String> lines = Files.readAllLines(inputPath);
-                // if the prompt contains #norollback, #merge, #merge-incomplete or #patch, we should not apply rollback
-                boolean applyRollback = lines.stream().noneMatch(l -> l.startsWith("#norollback") ||
-                        l.startsWith("#merge") || l.startsWith("#patch"));
-
-                if (applyRollback) {
-                    String rollbackFile = inputFile.replace(".txt", "-parsed.rollback");
-                    if (new File(rollbackFile).exists()) {
-                        processRollback(rollbackFile, SRC_FOLDER);
-                    }
-                }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-
         // PHASE 1: processing prompt (inputFile) inclusions and directives, generate the request, save it to outputFile
         if (!processingResponse) {
             try {
                 Path inputPath = Paths.get(inputFile);
                 if (!Files.exists(inputPath)) {
                     System.err.println("Input file not found: " + inputFile);
-                    System.exit(1);
+                    JAIG.exit(1);
                 }
                 String promptFolder = inputPath.getParent().toString();
 
                 List<String> lines = Files.readAllLines(inputPath);
+                // the files of all inclusions are found with one walk of their folders
+                InclusionResolver inclusionResolver = new InclusionResolver(lines.stream()
+                        .filter(LifecyclePhasesProcessor::isInclusion)
+                        .map(line -> inclusionPattern(line, promptFolder))
+                        .toList());
                 try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputFile), StandardCharsets.UTF_8)) {
                     for (String line : lines) {
-                        boolean isRelativePath = line.startsWith("./") || line.startsWith("../");
-                        boolean isPathFromContentRoot = line.startsWith("/");
-
-                        if (isRelativePath || isPathFromContentRoot) { // file of folder inclusion - read files and include
-                            String pathPrefix = ""; // this will be prepended to the line with path
-                            if (isRelativePath) pathPrefix = promptFolder + "/";
-                            if (isPathFromContentRoot) pathPrefix = ".";
-                            // Windows does not support wildcards ** in normalize(), so we need to temporally remove it
-                            line = line.replaceAll("\\*\\*", "all_files_wildcard");
-                            line = line.replaceAll("\\*", "wildcard");
-                            String pattern = Path.of(pathPrefix + line).normalize().toString();
-                            // we restore the wildcards
-                            String finalPattern = pattern.replaceAll("all_files_wildcard", "\\*\\*")
-                                    .replaceAll("wildcard", "\\*");
-                            Files.walkFileTree(Paths.get("."), new SimpleFileVisitor<Path>() {
-                                @Override
-                                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                                if (pathMatches(file.toString(), "./"+finalPattern)) {
-                                    System.out.println("Included file in the request: "+file);
-                                    writeToFile(file, writer);
-                                }
-                                return FileVisitResult.CONTINUE;
-                                }
-                            });
+                        if (isInclusion(line)) { // file of folder inclusion - read files and include
+                            for (Path file : inclusionResolver.matches(inclusionPattern(line, promptFolder))) {
+                                System.out.println("Included file in the request: "+file);
+                                writeToFile(file, writer);
+                            }
 
 /*
                             if (line.endsWith("/**")) {
@@ -146,7 +211,7 @@ public class LifecyclePhasesProcessor {
                                     writeToFile(filePath, writer);
                                 } else if (!optionalInclusion) {
                                     System.err.println("ERROR: The file does not exist: " + line);
-                                    System.exit(-1);
+                                    JAIG.exit(-1);
                                 }
                             }
 
@@ -176,7 +241,7 @@ public class LifecyclePhasesProcessor {
                                     Arrays.stream(mergeIncompleteArr).map(String::trim)
                                         .collect(Collectors.toList()));
                             // for #merge-incomplete we should not apply rollback
-                            GlobalConfig.INSTANCE.setApplyRollback(false);
+                            localConfig.setDisableRollback(true);
                         } else if (line.startsWith("#merge-incomplete")) {
                             localConfig.setMergeIncomplete(true);
                         } else if (line.startsWith("#nomerge")) {
@@ -184,11 +249,11 @@ public class LifecyclePhasesProcessor {
                         } else if (line.startsWith("#merge")) {
                             localConfig.setCreateMerge(true);
                             // for #merge we should not apply rollback
-                            GlobalConfig.INSTANCE.setApplyRollback(false);
+                            localConfig.setDisableRollback(true);
                         } else if (line.startsWith("#patch")) {
                             localConfig.setCreatePatch(true);
                             // for #patch we should not apply rollback
-                            GlobalConfig.INSTANCE.setApplyRollback(false);
+                            localConfig.setDisableRollback(true);
                         } else if (line.startsWith("#apply-patch")) {
                             localConfig.setApplyPatch(true);
                         } else if (line.startsWith("#apply-merge")) {
@@ -197,7 +262,9 @@ public class LifecyclePhasesProcessor {
                             localConfig.setApplyRollback(true);
                         } else if (line.startsWith("#norollback")) {
                             localConfig.setApplyRollback(false);
-                            GlobalConfig.INSTANCE.setApplyRollback(false);
+                            localConfig.setDisableRollback(true);
+                        } else if (line.startsWith("#nocache")) {
+                            localConfig.setNoCache(true);
                         } else if (line.startsWith("#package ")) {
                             localConfig.setPackageName(line.substring("#package ".length()).trim());
                         } else if (line.startsWith("#")) {
@@ -211,15 +278,26 @@ public class LifecyclePhasesProcessor {
 
             } catch (IOException e) {
                 System.err.println("An error occurred during prompt processing: " + e.getMessage());
-                return;
+                return null;
             }
             System.out.println(outputFile + " has been generated.");
         }
 
         // PHASE 2: send request to the AI to get the response: outputFile (request) => responseFile (response)
+        StreamingCodeParser streamingParser = null;
         if (!processingResponse && GlobalConfig.INSTANCE.isGenerateResponse()) {
+            // the classes are parsed while the response is streamed,
+            // unless the packages are added to the response before parsing (#package)
+            // or the complete response is needed by the lexer (astParse)
+            if (GlobalConfig.INSTANCE.isStreamingParse() && !GlobalConfig.INSTANCE.isAstParse()
+                    && localConfig.getPackageName() == null
+                    && (GlobalConfig.INSTANCE.isParseJavaCode() || localConfig.isParseJavaCode())) {
+                streamingParser = new StreamingCodeParser(responseFile,
+                        inputFile.replace(".txt", "") + "-parsed-stream");
+            }
             GptRequestRunner gptRequestRunner = new GptRequestRunner(localConfig);
-            gptResponse = gptRequestRunner.executeAndSaveGptRequest(outputFile, responseFile);
+            gptResponse = gptRequestRunner.executeAndSaveGptRequest(outputFile, responseFile, streamingParser);
+            if (streamingParser != null) streamingParser.complete();
             System.out.println("Response from ChatGPT is written to " + responseFile);
 
             if (autoRunJavaCode && gptResponse != null) {
@@ -227,6 +305,30 @@ public class LifecyclePhasesProcessor {
             }
         }
 
+        return new PromptRun(inputFile, localConfig, processingResponse, gptResponse, streamingParser);
+    }
+
+    /**
+     * PHASES 3-8: create a patch, parse the response, apply patch and merge,
+     * write the result to the src folder and create a rollback file.
+     * These phases change files in the src folder, so they are executed
+     * for one prompt at a time.
+     *
+     * @param promptRun - state of the prompt after PHASES 1-2
+     */
+    void completePrompt(PromptRun promptRun) {
+        String inputFile = promptRun.inputFile();
+        LocalConfig localConfig = promptRun.localConfig();
+        boolean processingResponse = promptRun.processingResponse();
+        String gptResponse = promptRun.gptResponse();
+
+        String SRC_FOLDER = GlobalConfig.INSTANCE.getSrcFolder();
+        String TEST_FOLDER = GlobalConfig.INSTANCE.getTestFolder();
+
+        // the directives of PHASE 1 turn off the rollback for the next prompts;
+        // it is done here, because PHASE 1 of several prompts can be executed at the same time
+        if (localConfig.isDisableRollback()) GlobalConfig.INSTANCE.setApplyRollback(false);
+
         // PHASE 3: create or update a patch, if response was parsed before and there are some code changes
         // go through all files in parsed folder and create a patch for each file
         if (GlobalConfig.INSTANCE.isCreatePatch() || localConfig.isCreatePatch()) {
@@ -280,7 +382,8 @@ public class LifecyclePhasesProcessor {
 
         String parsedCodeFolder = null;
         if (GlobalConfig.INSTANCE.isParseJavaCode() || localConfig.isParseJavaCode()) {
-            parsedCodeFolder = parseCode(inputFile, gptResponse, autoParseIsPossible, localConfig);
+            parsedCodeFolder = parseCode(inputFile, gptResponse, autoParseIsPossible, localConfig,
+                    promptRun.streamingParser());
         } else {
             if (autoParseIsPossible) {
                 System.out.println("Automatic parsing is possible for this response.");
@@ -302,7 +405,7 @@ public class LifecyclePhasesProcessor {
                 System.out.println("\n*********** JAIG Code AutoPatcher ***********");
                 System.out.println("We have found patch "+patchFilePath+", it will be applied");
                 try {
-                    FileUtils.copyDirectory(new File(parsedCodeFolder), new File(patchedCodeFolder));
+                    CopyOnWrite.copyDirectory(Path.of(parsedCodeFolder), Path.of(patchedCodeFolder));
                 } catch (IOException e) {
                     System.err.println("ERROR creating patch: cannot copy directory " + parsedCodeFolder + " to directory " + patchedCodeFolder);
                     return;
@@ -334,6 +437,7 @@ public class LifecyclePhasesProcessor {
                 System.out.println("\n*********** Creating Merge of 3 files: old, new and updated ***********");
                 System.out.println("We have changes in source code + changes in generated code => we need to merge it");
 
+                ContentManifest parsedOldManifest = ContentManifest.load(parsedOldFilePath.toString());
                 try {
                     String finalParsedCodeFolder = parsedCodeFolder;
                     Files.walkFileTree(parsedOldFilePath, new SimpleFileVisitor<>() {
@@ -342,8 +446,6 @@ public class LifecyclePhasesProcessor {
                             if (!localConfig.isMergeIncomplete() &&
                                     !isInMergeList(localConfig, file)) return FileVisitResult.CONTINUE;
                             try {
-                                // read contents of the file to List<String>
-                                List<String> parsedOldFileLines = Files.readAllLines(file);
                                 // get the path to the file in parsed folder
                                 String parsedFile = file.toString().replace("-old", "");
 
@@ -352,8 +454,6 @@ public class LifecyclePhasesProcessor {
                                 // TODO: check if file parsedFilePath exists
                                 //List<String> parsedFileLines = Files.readAllLines(parsedFilePath);
                                 // check if we have the changes
-//                                // we have to ignore first 5 lines in the file which contain the header
-                                parsedOldFileLines = parsedOldFileLines.subList(5, parsedOldFileLines.size());
 
                                 // TODO: if there were no changes in the generated file, we don't need to merge
                                 // TODO: and we should not overwrite the changes
@@ -372,7 +472,15 @@ public class LifecyclePhasesProcessor {
                                 }
                                 // if file srcPath exists
                                 if (Files.exists(srcPath)) {
+                                    // the same content (with the header) - the file was not changed after it was written
+                                    if (parsedOldManifest.sameContent(file, srcPath)) {
+                                        System.out.println("No merging needed: no changes found in " + srcPath);
+                                        return FileVisitResult.CONTINUE;
+                                    }
                                     // read contents of the file to List<String>
+                                    List<String> parsedOldFileLines = Files.readAllLines(file);
+                                    // we have to ignore first 5 lines in the file which contain the header
+                                    parsedOldFileLines = parsedOldFileLines.subList(5, parsedOldFileLines.size());
                                     List<String> srcFileLines = Files.readAllLines(srcPath);
 
                                     // check if we have the changes
@@ -411,6 +519,7 @@ public class LifecyclePhasesProcessor {
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
+                parsedOldManifest.save();
             } else if (localConfig.isMergeIncomplete() || localConfig.getMergeIncompleteList() != null) {
                 // case 2: use prompt mergeIncomplete defined in JAIG.yaml
                 System.out.println("\n*********** Creating Merge of 2 files: old and new ***********");
@@ -444,12 +553,14 @@ public class LifecyclePhasesProcessor {
         }
 
         List<String> rollbackLog = new ArrayList<>();
+        SrcTransaction srcTransaction = new SrcTransaction(SrcTransaction.journalFile(inputFile), rollbackLog);
 
         // PHASE 6: create backup and write parsed and patched code to SRC_FOLDER
         if (writeResponseToSrc(parsedCodeFolder, localConfig, 
-                patchedCodeFolder, TEST_FOLDER, SRC_FOLDER, rollbackLog)) return;
+                patchedCodeFolder, TEST_FOLDER, SRC_FOLDER, srcTransaction, rollbackLog)) return;
 
         // PHASE 7: create rollback file
+        boolean rollbackWritten = true;
         if (!rollbackLog.isEmpty() &&
                 (GlobalConfig.INSTANCE.isCreateRollback() || localConfig.isCreateRollback())) {
             String rollbackFileName = inputFile.replace(".txt","-parsed.rollback");
@@ -472,6 +583,7 @@ public class LifecyclePhasesProcessor {
                     // if -full.rollback didn't exist before, and there are some changes in rollbacks - create it
                     if (!rollbackLinesEqRollbackLog && !new File(initialRollbackFileName).exists()) {
                         new File(rollbackFileName).renameTo(new File(initialRollbackFileName));
+                        RollbackManifest.move(rollbackFileName, initialRollbackFileName);
                         System.out.println("Rollback file " + rollbackFileName + " is renamed to " + initialRollbackFileName);
                     }
                 }
@@ -482,12 +594,22 @@ public class LifecyclePhasesProcessor {
             try {
                 FileUtils.writeLines(new File(rollbackFileName),
                         StandardCharsets.UTF_8.toString(), rollbackLog);
+                // an operation "Restore ... from ..." is one element of rollbackLog
+                RollbackManifest.parse(rollbackLog.stream().flatMap(String::lines).toList()).save(rollbackFileName);
                 System.out.println("Rollback file is written to "+rollbackFileName);
             } catch (IOException e) {
                 System.err.println("ERROR: cannot write rollback file to "+rollbackFileName);
                 e.printStackTrace();
+                rollbackWritten = false;
             }
         }
+        if (rollbackWritten) {
+            // the rollback is saved (or not requested), the writing to src is completed
+            srcTransaction.finish();
+        } else {
+            // src is restored from the journal before the next run of the prompt
+            System.err.println("The journal of the changes in src is kept: " + SrcTransaction.journalFile(inputFile));
+        }
 
         // PHASE 8: apply merge prompts
         if ((GlobalConfig.INSTANCE.isApplyMerge() || localConfig.isApplyMerge()) && !mergePromptFiles.isEmpty()) {
@@ -500,7 +622,8 @@ public class LifecyclePhasesProcessor {
 
     }
 
-    private boolean writeResponseToSrc(String parsedCodeFolder, LocalConfig localConfig, String patchedCodeFolder, String TEST_FOLDER, String SRC_FOLDER, List<String> rollbackLog) {
+    private boolean writeResponseToSrc(String parsedCodeFolder, LocalConfig localConfig, String patchedCodeFolder, String TEST_FOLDER, String SRC_FOLDER,
+                                       SrcTransaction srcTransaction, List<String> rollbackLog) {
         if (parsedCodeFolder != null &&
                 (GlobalConfig.INSTANCE.isWriteResponseToSrc() || localConfig.isWriteResponseToSrc())) {
 
@@ -521,6 +644,11 @@ public class LifecyclePhasesProcessor {
 
             // walk through all files in parsedCodeFolder and copy files from SRC_FOLDER to backup
             Path generatedSourcesFolderPath = Path.of(destinationFolder);
+            // hashes of the generated files, to find the files which are not changed without reading them
+            ContentManifest manifest = ContentManifest.load(destinationFolder);
+            // the backups are written to JAIG/snapshots, the same content is stored once for all prompts
+            SnapshotStore.Tree snapshot = GlobalConfig.INSTANCE.isSnapshotStore() ?
+                    SnapshotStore.INSTANCE.tree(windowsCompatiblePath(parsedCodeFolder).replaceFirst("-parsed$", "-backup")) : null;
             // Create a backup for every file and copy file to src folder
             try {
                 // check if we should write response to test (#test directive is used in prompt)
@@ -561,14 +689,8 @@ public class LifecyclePhasesProcessor {
                                         "$1/$2-backup");
 
                                 try {
-                                    // compare contents of the files
-                                    String srcFileContent = FileUtils.readFileToString(
-                                            new File(srcFile), StandardCharsets.UTF_8);
-                                    // read content of the file
-                                    String targetFileContent = FileUtils.readFileToString(
-                                            new File(file.toString()), StandardCharsets.UTF_8);
                                     // if files are equal, no need to create backup
-                                    if (srcFileContent.equals(targetFileContent)) {
+                                    if (manifest.sameContent(file, Path.of(srcFile))) {
                                         System.out.println(
                                                 "No backup created: " + srcFile + "\n" +
                                                         "               and " + file + " are identical");
@@ -580,8 +702,14 @@ public class LifecyclePhasesProcessor {
                                         Files.createDirectories(Path.of(generatedFile).getParent());
                                     }
 
-                                    // copy src file to backup folder
-                                    Files.copy(Path.of(srcFile), Path.of(generatedFile), StandardCopyOption.REPLACE_EXISTING);
+                                    // copy src file to backup folder: never a hard link to src file,
+                                    // the IDE or the editor can change src file in place
+                                    if (snapshot != null) {
+                                        snapshot.backup(Path.of(srcFile), Path.of(generatedFile));
+                                    } else {
+                                        Files.copy(Path.of(srcFile), Path.of(generatedFile),
+                                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                                    }
                                     System.out.println(
                                             "Created backup: copied " + srcFile + "\n" +
                                                     "                to " + generatedFile);
@@ -595,19 +723,20 @@ public class LifecyclePhasesProcessor {
                             }
                         }
 
-                        // copy generated file to final_targetFolder folder
+                        // copy generated file to final_targetFolder folder (when the transaction is committed)
                         String srcFolderFilePath = file.toString().replaceFirst(
                                 ".*"+generatedFolderPosfix,
                                 final_targetFolder);
                         try {
-                            if (!Files.exists(Path.of(srcFolderFilePath))) {
-                                Files.createDirectories(Path.of(srcFolderFilePath));
+                            if (GlobalConfig.INSTANCE.isIncrementalParse() && Files.exists(Path.of(srcFolderFilePath))
+                                    && manifest.sameContent(file, Path.of(srcFolderFilePath))) {
+                                // the file in src keeps its last modified time
+                                return FileVisitResult.CONTINUE;
                             }
-                            Files.copy(file, Path.of(srcFolderFilePath), StandardCopyOption.REPLACE_EXISTING);
                         } catch (IOException e) {
-                            System.err.println("ERROR: wasn't able to copy "+file+" to "+srcFolderFilePath);
-                            return FileVisitResult.TERMINATE;
+                            System.out.println("WARNING: wasn't able to compare "+file+" with "+srcFolderFilePath);
                         }
+                        srcTransaction.write(file, Path.of(srcFolderFilePath));
                         return FileVisitResult.CONTINUE;
                     }
 
@@ -615,6 +744,16 @@ public class LifecyclePhasesProcessor {
             } catch (IOException e) {
                 System.err.println("ERROR: wasn't able to go through all files in folder "+generatedSourcesFolderPath);
                 return true;
+            } finally {
+                manifest.save();
+                if (snapshot != null) snapshot.save();
+            }
+            try {
+                srcTransaction.commit();
+            } catch (IOException e) {
+                System.err.println("ERROR: wasn't able to write files to src folder: " + e.getMessage());
+                System.err.println("The files will be restored before the next run of the prompt");
+                return true;
             }
         }
         return false;
@@ -666,9 +805,11 @@ public class LifecyclePhasesProcessor {
      * @param inputFileName - file with the initial request
      * @param autoParseIsPossible - true if parsing is possible (found packages)
      * @param localConfig - local config for this request
+     * @param streamingParser - classes parsed while the response was streamed, can be null
      * @return folder with parsed code or null if parsing is not possible
      */
-    private String parseCode(String inputFileName, String code, boolean autoParseIsPossible, LocalConfig localConfig) {
+    private String parseCode(String inputFileName, String code, boolean autoParseIsPossible, LocalConfig localConfig,
+                             StreamingCodeParser streamingParser) {
         String responseFile = inputFileName.replace(".txt","-response.txt");
         String parsedCodeFolder = null;
         if (autoParseIsPossible) {
@@ -678,7 +819,12 @@ public class LifecyclePhasesProcessor {
             String parsedFolder = inputFileName.replace(".txt","")+"-parsed";
             prepareParsedFolders(parsedFolder, localConfig);
             // If not interrupted, we continue with the next phase...
-            parsedCodeFolder = CodeParser.parse(responseFile, code, parsedFolder);
+            if (streamingParser != null && streamingParser.moveTo(parsedFolder, code)) {
+                // the classes were already parsed while the response was streamed
+                parsedCodeFolder = parsedFolder;
+            } else {
+                parsedCodeFolder = CodeParser.parse(responseFile, code, parsedFolder);
+            }
             // parsedCodeFolder is null if parsing failed, it is used
             // to skip PHASES 5 & 6
         } else if (localConfig.getSaveResponseTo() != null) { // save-to: is used
@@ -698,17 +844,21 @@ public class LifecyclePhasesProcessor {
             System.out.println("This response cannot be parsed.");
             System.out.println("If you need the response to be parsed, it should contain packages for each class or interface.");
         }
+        // the files parsed while streaming are not used (or already moved)
+        if (streamingParser != null) streamingParser.discard();
         return parsedCodeFolder;
     }
 
     public void stopAutoParseByUser() {
         System.out.println("You have "+GlobalConfig.INSTANCE.getPreParseCountdown()+" seconds to prevent automatic parsing.\n" +
                 "Press Ctrl-C or STOP the execution to prevent the parsing.");
+        // the countdown is printed to the console of the prompt
+        PrintStream out = PromptConsole.out();
         Thread countdownThread = new Thread(() -> {
             int frame = GlobalConfig.INSTANCE.getPreParseCountdown();
             while (frame>=0) {
                 String loadingText = "Parsing countdown... " + frame;
-                System.out.print("\r" + loadingText);
+                out.print("\r" + loadingText);
                 frame--;
                 try {
                     Thread.sleep(1000);
@@ -748,43 +898,14 @@ public class LifecyclePhasesProcessor {
      * Check that there are equal number of lines in gptResponse
      * which start from "package " and end on ";"
      * and number of lines which start with "public class" and end with "{".
+     * With astParse the code is split by the lexer, so it's enough that it finds a class after a package line.
      *
      * @param gptResponse response with the code received from Chat GPT
      * @return true if we should automatically parse this file
      */
-    private boolean checkGPTResponseForAutoParse(String gptResponse) {
-        String[] lines = gptResponse.split("\n");
-
-        // Pattern for package
-        Pattern patternPackage = Pattern.compile("^package .*;$");
-        int countPackage = 0;
-
-        // Get patterns from the global config
-        List<String> javaFileNameRegexps = GlobalConfig.INSTANCE.getJavaFileNameRegexps();
-        Map<Pattern, Integer> patternCounts = new HashMap<>();
-
-        // Initialize patterns with count 0
-        for (String regex : javaFileNameRegexps) {
-            patternCounts.put(Pattern.compile("^" + regex + ".*\\{$"), 0);
-        }
-
-        for (String line : lines) {
-            // Check for package pattern match
-            if (patternPackage.matcher(line).matches()) {
-                countPackage++;
-            }
-
-            // Check for other pattern matches
-            for (Map.Entry<Pattern, Integer> entry : patternCounts.entrySet()) {
-                if (entry.getKey().matcher(line).matches()) {
-                    patternCounts.put(entry.getKey(), entry.getValue() + 1);
-                }
-            }
-        }
-
-        int totalOtherPatternCounts = patternCounts.values().stream().mapToInt(Integer::intValue).sum();
-
-        return countPackage > 0 && countPackage == totalOtherPatternCounts;
+    boolean checkGPTResponseForAutoParse(String gptResponse) {
+        if (GlobalConfig.INSTANCE.isAstParse()) return AstCodeParser.isAutoParsePossible(gptResponse);
+        return GlobalConfig.INSTANCE.getJavaFileNameMatcher().isAutoParsePossible(gptResponse);
     }
 
 
@@ -803,6 +924,7 @@ public class LifecyclePhasesProcessor {
             if (parsedFolderFileOld.exists()) {
                 try {
                     FileUtils.deleteDirectory(parsedFolderFileOld);
+                    ContentManifest.delete(parsedFolderFileOld.getPath());
                     System.out.println("Deleted folder "+parsedFolderFileOld);
                 } catch (IOException e) {
                     System.out.println("Unable to delete folder "+parsedFolderFileOld);
@@ -816,8 +938,18 @@ public class LifecyclePhasesProcessor {
                     !GlobalConfig.INSTANCE.isApplyRollback() && !localConfig.isApplyRollback();
             // if we don't need to merge the code, we don't need to keep the old version
             // if we automatically rollback the code, we don't need it either
-            if (doWeNeedParsedOld) {
+            if (doWeNeedParsedOld && GlobalConfig.INSTANCE.isIncrementalParse()) {
+                // the files of "-parsed" are kept, only the changed files will be written
+                try {
+                    CopyOnWrite.copyDirectory(parsedFolderFile.toPath(), parsedFolderFileOld.toPath());
+                    ContentManifest.copy(parsedFolderFile.getPath(), parsedFolderFileOld.getPath());
+                    System.out.println("Copied folder " + parsedFolderFile + " to " + parsedFolderFileOld);
+                } catch (IOException e) {
+                    System.out.println("Unable to copy folder " + parsedFolderFile + " to " + parsedFolderFileOld);
+                }
+            } else if (doWeNeedParsedOld) {
                 if (parsedFolderFile.renameTo(parsedFolderFileOld)) {
+                    ContentManifest.move(parsedFolderFile.getPath(), parsedFolderFileOld.getPath());
                     System.out.println("Renamed folder " + parsedFolderFile + " to " + parsedFolderFileOld);
                 } else {
                     System.out.println("Unable to rename folder " + parsedFolderFile + " to " + parsedFolderFileOld);
@@ -825,7 +957,9 @@ public class LifecyclePhasesProcessor {
             }
         }
         // create folder "prompt-parsed"
-        if (parsedFolderFile.mkdir()) {
+        if (parsedFolderFile.isDirectory()) {
+            System.out.println("Using existing folder " + parsedFolderFile);
+        } else if (parsedFolderFile.mkdir()) {
             System.out.println("Created folder " + parsedFolderFile);
         } else {
             System.out.println("Unable to create folder " + parsedFolderFile);
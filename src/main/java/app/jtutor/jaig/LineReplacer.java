@@ -0,0 +1,69 @@
+package app.jtutor.jaig;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces blocks of lines (<old> lines of a patch) with the new lines in one pass over the file.
+ *
+ * All <old> blocks are put into a trie of trimmed lines, so at every line of the file
+ * the trie is walked only while the next lines continue some block; the longest block wins.
+ * The lines are compared trimmed (like in the patch), blank lines inside the block are skipped.
+ * Replaced lines are not checked again by the other blocks.
+ */
+class LineReplacer {
+
+    private static class Node {
+        final Map<String, Node> next = new HashMap<>();
+        List<String> newLines;
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * @param replacements - <old> lines (trimmed, \n separated) -> <new> lines (\n separated)
+     */
+    LineReplacer(Map<String, String> replacements) {
+        for (Map.Entry<String, String> entry : replacements.entrySet()) {
+            Node node = root;
+            for (String oldLine : entry.getKey().split("\n")) {
+                if (oldLine.isBlank()) continue;
+                node = node.next.computeIfAbsent(oldLine.trim(), k -> new Node());
+            }
+            // a block of blank lines would be found everywhere
+            if (node != root) {
+                node.newLines = List.of(entry.getValue().split("\n"));
+            }
+        }
+    }
+
+    List<String> replace(List<String> sourceLines) {
+        List<String> result = new ArrayList<>(sourceLines.size());
+        int i = 0;
+        while (i < sourceLines.size()) {
+            Node node = root;
+            List<String> newLines = null;
+            int end = i;
+            for (int j = i; j < sourceLines.size(); j++) {
+                String line = sourceLines.get(j).trim();
+                if (line.isEmpty() && node != root) continue; // blank line inside the block
+                node = node.next.get(line);
+                if (node == null) break;
+                if (node.newLines != null) {
+                    newLines = node.newLines;
+                    end = j + 1;
+                }
+            }
+            if (newLines != null) {
+                result.addAll(newLines);
+                i = end;
+            } else {
+                result.add(sourceLines.get(i));
+                i++;
+            }
+        }
+        return result;
+    }
+}
@@ -6,6 +6,8 @@ public class LoadingProcess {
     private volatile boolean running;
 
     public void start() {
+        // no animation if the output of the prompt is collected to be printed later
+        if (PromptConsole.isCapturing()) return;
         running = true;
 
         animationThread = new Thread(() -> {
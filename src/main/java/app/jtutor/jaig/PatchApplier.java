@@ -1,7 +1,9 @@
 package app.jtutor.jaig;
 
+import app.jtutor.daemon.JAIGDaemon;
 import org.apache.commons.io.FileUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -9,17 +11,41 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
 
 public class PatchApplier {
     public static PatchApplier INSTANCE = new PatchApplier();
 
+    /**
+     * Thrown when the file of the patch cannot be read or written,
+     * the other files of the patch are still patched
+     */
+    public static class PatchException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public PatchException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Lines of the patch for one file (after @file.java line)
+     * @param saveToFileName - for @/path/file.java: where the patched file should be copied, otherwise null
+     */
+    private record PatchSection(String fileName, String saveToFileName, List<String> lines) {
+    }
+
     /**
      * Applies patch to all files mentioned in patch (like @file.java),
      * finds the file in sourceFolderPath
-     * and saves the result to the destination folder
+     * and saves the result to the destination folder.
+     *
+     * The files are patched in parallel; console output of every file is printed as one group
+     * in the order of the patch, and errors are printed in one report at the end.
      *
      * @param sourceFolderPath - path to the folder where the files are located (usually prompt-parsed)
      * @param destinationFolderPath - path to the folder where the patched files should be saved (usually src/main/java)
@@ -28,69 +54,137 @@ public class PatchApplier {
     public void patchFolder(String sourceFolderPath, String destinationFolderPath, String patchFilePath) {
         System.out.println("Patch folder "+sourceFolderPath+" with patch "+patchFilePath);
         System.out.println("Destination folder is "+destinationFolderPath);
-        List<String> patchLines = null;
+        List<String> patchLines;
         try {
             patchLines = FileUtils.readLines(new File(patchFilePath), StandardCharsets.UTF_8);
         } catch (IOException e) {
             System.out.println("APPLY PATCH ERROR: Cannot read file "+patchFilePath);
+            return;
         }
-        List<String> patchFileLines = new ArrayList<>();
-        String sourceFileName = null;
-        String destinationFileName = null;
-        String destinationSaveToFileName = null;
-        for (String line : patchLines) {
-            if (line.startsWith("@")) {
-                // patch previous file lines
-                if (sourceFileName != null && destinationFileName != null && patchFileLines.size() > 0) {
-                    patchFile(sourceFileName, destinationFileName, patchFileLines);
-                    patchFileLines.clear();
+
+        List<String> errors = new ArrayList<>();
+        Map<String, Path> sourceFiles = filesByName(sourceFolderPath, errors);
+        // the sections of the same file are applied one after another (the last one wins, as before)
+        Map<Path, List<PatchSection>> sectionsByFile = new LinkedHashMap<>();
+        for (PatchSection section : parseSections(patchLines)) {
+            Path sourceFile = sourceFiles.get(section.fileName());
+            if (sourceFile == null) {
+                errors.add("Cannot find file " + section.fileName() + " in folder " + sourceFolderPath);
+            } else if (!section.lines().isEmpty()) {
+                sectionsByFile.computeIfAbsent(sourceFile, f -> new ArrayList<>()).add(section);
+            }
+        }
+
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), Math.max(sectionsByFile.size(), 1));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<CompletableFuture<List<String>>> patches = new ArrayList<>();
+        List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        for (Map.Entry<Path, List<PatchSection>> entry : sectionsByFile.entrySet()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            outputs.add(output);
+            patches.add(CompletableFuture.supplyAsync(() -> PromptConsole.capture(output,
+                    () -> patchSections(sourceFolderPath, destinationFolderPath, entry.getKey(), entry.getValue())),
+                    executor));
+        }
+        try {
+            for (int i = 0; i < patches.size(); i++) {
+                List<String> fileErrors;
+                try {
+                    fileErrors = patches.get(i).join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof JAIGDaemon.CommandExit exit) throw exit;
+                    fileErrors = List.of(String.valueOf(e.getCause()));
                 }
+                System.out.print(outputs.get(i).toString());
+                errors.addAll(fileErrors);
+            }
+        } finally {
+            executor.shutdown();
+        }
 
+        if (!errors.isEmpty()) {
+            System.out.println("*********** PATCHING ERRORS ***********");
+            System.out.println("Patch " + patchFilePath + " is applied with " + errors.size() + " error(s):");
+            errors.forEach(error -> System.out.println("APPLY PATCH ERROR: " + error));
+        }
+    }
+
+    private static List<PatchSection> parseSections(List<String> patchLines) {
+        List<PatchSection> sections = new ArrayList<>();
+        List<String> lines = null;
+        for (String line : patchLines) {
+            if (line.startsWith("@")) {
                 String fileName;
+                String saveToFileName = null;
                 if (line.startsWith("@/")) { // file outside src/main/java
-                    destinationSaveToFileName = line.substring(2);;
-                    fileName = new File(destinationSaveToFileName).getName();
-                    System.out.println("*********** PATCHING "+fileName+" ***********");
+                    saveToFileName = line.substring(2);
+                    fileName = new File(saveToFileName).getName();
                 } else { // file inside src/main/java
                     fileName = line.substring(1);
                 }
-                // iterating the folder sourceFolderPath to find the file fileName
-                try {
-                    Optional<Path> first = Files.walk(Paths.get(sourceFolderPath))
-                            .filter(f -> f.getFileName().toString().equals(fileName)).findFirst();
-                    if (first.isPresent()) {
-                        sourceFileName = first.get().toString();
-                        // find the relative path of the file sourceFileName from the sourceFolderPath
-                        String relativePath = Paths.get(sourceFolderPath).relativize(first.get()).toString();
-                        destinationFileName = destinationFolderPath + "/" + relativePath;
-                    } else {
-                        System.out.println("APPLY PATCH ERROR: Cannot find file " + fileName + " in folder " + sourceFolderPath);
+                lines = new ArrayList<>();
+                sections.add(new PatchSection(fileName, saveToFileName, lines));
+            } else if (lines != null) {
+                lines.add(line);
+            }
+        }
+        return sections;
+    }
+
+    /**
+     * @return errors of patching the file
+     */
+    private List<String> patchSections(String sourceFolderPath, String destinationFolderPath,
+                                       Path sourceFile, List<PatchSection> sections) {
+        List<String> errors = new ArrayList<>();
+        // find the relative path of the file from the sourceFolderPath
+        String relativePath = Paths.get(sourceFolderPath).toAbsolutePath().normalize()
+                .relativize(sourceFile.toAbsolutePath().normalize()).toString();
+        String destinationFileName = destinationFolderPath + "/" + relativePath;
+        for (PatchSection section : sections) {
+            System.out.println("*********** PATCHING "+sourceFile+" ***********");
+            System.out.println("Patched file is "+destinationFileName);
+            try {
+                patchFile(sourceFile.toString(), destinationFileName, section.lines());
+                if (section.saveToFileName() != null) {
+                    System.out.println("Copying patched file " + destinationFileName + " to " + section.saveToFileName());
+                    try {
+                        FileUtils.copyFile(new File(destinationFileName), new File(section.saveToFileName()));
+                    } catch (IOException e) {
+                        throw new PatchException("Cannot copy file " + destinationFileName + " to " + section.saveToFileName());
                     }
-                } catch (IOException e) {
-                    System.out.println("APPLY PATCH ERROR: Cannot read folder " + sourceFolderPath);
                 }
-            } else {
-                patchFileLines.add(line);
+            } catch (PatchException e) {
+                System.out.println("APPLY PATCH ERROR: " + e.getMessage());
+                errors.add(e.getMessage());
             }
         }
-        System.out.println("*********** PATCHING "+sourceFileName+" ***********");
-        System.out.println("Patched file is "+destinationFileName);
-
-        // patch last file in patchfile
-        if (sourceFileName != null && destinationFileName != null && patchFileLines.size() > 0) {
-            patchFile(sourceFileName, destinationFileName, patchFileLines);
+        return errors;
+    }
 
-            if (destinationSaveToFileName != null) {
-                // copy destinationFileName to destinationSaveToFileName
-                try {
-                    System.out.println("Copying patched file " + destinationFileName + " to " + destinationSaveToFileName);
-                    FileUtils.copyFile(new File(destinationFileName), new File(destinationSaveToFileName));
-                } catch (IOException e) {
-                    System.out.println("APPLY PATCH ERROR: Cannot copy file " + destinationFileName + " to " + destinationSaveToFileName);
-                    System.exit(-1);
-                }
+    /**
+     * Index of the folder by file name, it is built once for the whole patch
+     * @return file name -> the first file (sorted by path) with this name in the folder or its subfolders
+     */
+    private static Map<String, Path> filesByName(String folderPath, List<String> errors) {
+        List<String> files;
+        if (WorkspaceIndex.key(folderPath) != null) {
+            files = WorkspaceIndex.INSTANCE.files(folderPath);
+        } else {
+            // the folder is outside the content root, it is not indexed
+            try (Stream<Path> paths = Files.walk(Paths.get(folderPath))) {
+                files = paths.filter(Files::isRegularFile).map(Path::toString).sorted().toList();
+            } catch (IOException e) {
+                errors.add("Cannot read folder " + folderPath);
+                files = List.of();
             }
         }
+        Map<String, Path> filesByName = new HashMap<>();
+        for (String file : files) {
+            Path path = Paths.get(file);
+            filesByName.putIfAbsent(path.getFileName().toString(), path);
+        }
+        return filesByName;
     }
 
     /**
@@ -102,16 +196,19 @@ public class PatchApplier {
      * @param patchLines - patch lines
      *                       (the patch should be generated by JAIG)
      */
-    private void patchFile(String sourceFileName, String destinationFileName, List<String> patchLines) {
+    void patchFile(String sourceFileName, String destinationFileName, List<String> patchLines) {
         File sourceFile = new File(sourceFileName);
-        List<String> sourceLines = null;
+        List<String> sourceLines;
         try {
             sourceLines = FileUtils.readLines(sourceFile, StandardCharsets.UTF_8);
         } catch(Exception e) {
-            System.out.println("APPLY PATCH WARN: Cannot read file "+sourceFile);
-            System.exit(-1);
+            throw new PatchException("Cannot read file "+sourceFile);
+        }
+        // trimmed source line -> numbers of the lines (ascending), to find <after> and <old> lines
+        Map<String, List<Integer>> sourceLinePositions = new HashMap<>(sourceLines.size() * 2);
+        for (int i = 0; i < sourceLines.size(); i++) {
+            sourceLinePositions.computeIfAbsent(sourceLines.get(i).trim(), k -> new ArrayList<>(1)).add(i);
         }
-        String allSourceLinesTrimJoined = sourceLines.stream().map(line->line.trim()).collect(Collectors.joining("\n"));
         // insertionsAfter represents the insertions after line <after>
         // For example:
         // after+4>         for (Material material : course1.getMaterials()) {
@@ -145,12 +242,11 @@ public class PatchApplier {
         boolean nextToAfterLine = false;
 
         for (String patchLine: patchLines) {
-            String finalAfter = after;
             // continuedInsertions exclude cases when after> is related to insertions, not deletions
             if (after != null && patchLine.trim().startsWith("deleted>")) {
                 nextToAfterLine = false;
                 // check that line <after> exists in the source file
-                if (!sourceLines.stream().anyMatch(line -> line.trim().equals(finalAfter.trim()))) {
+                if (!sourceLinePositions.containsKey(after.trim())) {
                     afterWARN = after;
                     patchWARNs.append("\nPATCH WARN: cannot delete line, line <after> doesn't exist:\n" +
                             (shift > 1 ? "       after+" + shift + ">" : "      after>") + after + "\n" + patchLine);
@@ -176,7 +272,7 @@ public class PatchApplier {
                     patchWARNs.append("\n"+patchLine.replace("inserted>", "         "));
                 } else {
                     // check that line <after> exists in the source file
-                    if (!sourceLines.stream().anyMatch(line -> line.trim().equals(finalAfter.trim()))) {
+                    if (!sourceLinePositions.containsKey(after.trim())) {
                         afterWARN = after;
                         patchWARNs.append("\nAPPLY PATCH WARN: cannot insert, line <after> doesn't exist:\n" +
                                 (shift > 1 ? "       after+" + shift + ">" : "      after>") + after + "\n" + patchLine);
@@ -199,7 +295,7 @@ public class PatchApplier {
                 nextToAfterLine = false;
                 continuedOldLines = false;
                 // check that line <after> exists in the source file
-                if (!sourceLines.stream().anyMatch(line -> line.trim().equals(finalAfter.trim()))) {
+                if (!sourceLinePositions.containsKey(after.trim())) {
                     afterWARN = after;
                     patchWARNs.append("\nAPPLY PATCH WARN: cannot replace, line <after> doesn't exist:\n" +
                             "      after>" + after + "\n" + patchLine);
@@ -313,12 +409,9 @@ public class PatchApplier {
                 String[] linesToDeleteInPatch = deletionLines.split("\n");
                 String lineToFind = linesToDeleteInPatch[0];
                 // finding line
-                int iShift = 0;
                 int deleteLineIndex = 0;
                 // finding when the line to delete is started
-                while (i+iShift<sourceLines.size() && !sourceLines.get(i+iShift).trim().equals(lineToFind.trim())) {
-                    iShift++;
-                }
+                int iShift = nextPosition(sourceLinePositions, lineToFind.trim(), i, sourceLines.size()) - i;
                 while(i+iShift<sourceLines.size() && deleteLineIndex<linesToDeleteInPatch.length) {
                     String lineToDeleteInSource = sourceLines.get(i+iShift);
                     String lineToDeleteInPatch = linesToDeleteInPatch[deleteLineIndex];
@@ -343,16 +436,11 @@ public class PatchApplier {
                     String lineToFind = oldLinesSplitted[0].trim(); // first line of <old> lines
                     String newLines = replacementsMap.get(oldLine);
                     String[] newLinesSplitted = newLines.split("\n");
-                    // finding the first <old> line
-                    int iShift = 0;
-                    // finding when the line to replace is started
-                    while (!sourceLines.get(i+iShift).trim().equals(lineToFind)) {
-                        iShift++;
-                        if (i+iShift == sourceLines.size()) {
-                            System.out.println(
-                                    "APPLY PATCH WARN: <old> line was not found: " + lineToFind);
-                            break;
-                        }
+                    // finding when the line to replace is started (the first <old> line)
+                    int iShift = nextPosition(sourceLinePositions, lineToFind, i, sourceLines.size()) - i;
+                    if (i+iShift == sourceLines.size()) {
+                        System.out.println(
+                                "APPLY PATCH WARN: <old> line was not found: " + lineToFind);
                     }
                     for (int j = 0; j<newLinesSplitted.length; j++) {
                         if (oldLinesSplitted[j].trim().equals(sourceLines.get(i + iShift + j).trim())) {
@@ -388,38 +476,32 @@ public class PatchApplier {
         List<String> resultLinesWithReplacements = applyReplacements(resultLines, replacements);
 
         try {
+            // the file of -patched folder can be a hard link to the file of -parsed folder
+            CopyOnWrite.breakLink(Path.of(destinationFileName));
             FileUtils.writeLines(new File(destinationFileName), resultLinesWithReplacements);
         } catch (IOException e) {
-            System.out.println("APPLY PATCH WARN: wasn't able to save patched result to "+destinationFileName);
+            throw new PatchException("Cannot save patched result to "+destinationFileName);
         }
         System.out.println("Patched file "+destinationFileName);
 
     }
 
-    public static List<String> applyReplacements(List<String> sourceLines, Map<String, String> replacements) {
-        String sourceString = String.join("\n", sourceLines);
-
-        for (Map.Entry<String, String> entry : replacements.entrySet()) {
-            String keyPattern = createRegexPatternFromMultiline(entry.getKey());
-            sourceString = sourceString.replaceAll(keyPattern, "\n"+Matcher.quoteReplacement(entry.getValue()));
-        }
-
-        return new ArrayList<>(Arrays.asList(sourceString.split("\n")));
+    /**
+     * Finds the first line with the trimmed text at the position from or later
+     * @return the line number, or notFound if there is no such line
+     */
+    private static int nextPosition(Map<String, List<Integer>> linePositions, String trimmedLine,
+                                    int from, int notFound) {
+        List<Integer> positions = linePositions.get(trimmedLine);
+        if (positions == null) return notFound;
+        int index = Collections.binarySearch(positions, from);
+        if (index < 0) index = -index - 1;
+        return index < positions.size() ? positions.get(index) : notFound;
     }
 
-    private static String createRegexPatternFromMultiline(String multiline) {
-        String[] lines = multiline.split("\n");
-        StringBuilder pattern = new StringBuilder();
-
-        for (int i = 0; i < lines.length; i++) {
-            pattern.append(Pattern.quote(lines[i]));
-            // If it's not the last line, append the whitespace pattern
-            if (i < lines.length - 1) {
-                pattern.append("\\s*?\n\\s*?");
-            }
-        }
-
-        return pattern.toString();
+    public static List<String> applyReplacements(List<String> sourceLines, Map<String, String> replacements) {
+        if (replacements.isEmpty()) return sourceLines;
+        return new LineReplacer(replacements).replace(sourceLines);
     }
 
 }
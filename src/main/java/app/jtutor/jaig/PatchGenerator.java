@@ -5,12 +5,21 @@ import com.github.difflib.text.DiffRow;
 import com.github.difflib.text.DiffRowGenerator;
 import org.apache.commons.io.FileUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public class PatchGenerator {
 
@@ -73,39 +82,78 @@ public class PatchGenerator {
             .lineNormalizer(s->s)
             .build();
 
+    /**
+     * Generates the patch for all java files of the folder.
+     * The files are compared in parallel (ForkJoinPool.commonPool), the patch and the console output
+     * are merged in the order of the file paths; the files with the same size and hash are skipped.
+     */
     public List<String> generateFoldersDiff(File originalFolder, File revisedFolder) throws IOException {
-        List<String> unifiedDiff = new ArrayList<>();
+        if (!originalFolder.isDirectory() || !revisedFolder.isDirectory()) {
+            throw new IllegalArgumentException("originalFolder and revisedFolder must be directories.");
+        }
+        List<File> originalFiles = new ArrayList<>(FileUtils.listFiles(originalFolder, new String[]{"java"}, true));
+        originalFiles.sort(Comparator.comparing(File::getPath));
 
-        if (originalFolder.isDirectory() && revisedFolder.isDirectory()) {
-            Collection<File> originalFiles = FileUtils.listFiles(originalFolder, new String[]{"java"}, true);
-            Collection<File> revisedFiles = FileUtils.listFiles(revisedFolder, new String[]{"java"}, true);
-
-            for (File originalFile : originalFiles) {
-                if (!originalFile.isFile()) continue;
-                String relativePath = originalFolder.toPath().relativize(originalFile.toPath()).toString();
-                File revisedFile = new File(revisedFolder, relativePath);
-
-                if (revisedFile.exists()) {
-                    if (originalFile.isDirectory() && revisedFile.isDirectory()) {
-                        unifiedDiff.addAll(generateFoldersDiff(originalFile, revisedFile));
-                    } else if (originalFile.isFile() && revisedFile.isFile()) {
-                        generateFilesDiff(JAIGJavaHeader.INSTANCE, originalFile, revisedFile, unifiedDiff);
-                    }
-                } else {
-                    unifiedDiff.add("File not found in the revisedFolder folder: " + revisedFile.getPath());
-                }
-            }
+        // the pool is set explicitly: with 1-2 CPUs supplyAsync would start a new thread for every file;
+        // with 1 CPU the files are compared in the current thread
+        Executor executor = ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool() : Runnable::run;
+        List<CompletableFuture<List<String>>> diffs = new ArrayList<>();
+        List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        for (File originalFile : originalFiles) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            outputs.add(output);
+            diffs.add(CompletableFuture.supplyAsync(() ->
+                    PromptConsole.capture(output, () -> generateFileDiff(originalFolder, revisedFolder, originalFile)),
+                    executor));
+        }
 
-        } else {
-            throw new IllegalArgumentException("originalFolder and revisedFolder must be directories.");
+        List<String> unifiedDiff = new ArrayList<>();
+        for (int i = 0; i < diffs.size(); i++) {
+            try {
+                unifiedDiff.addAll(diffs.get(i).join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException ioException) throw ioException.getCause();
+                throw e;
+            } finally {
+                System.out.print(outputs.get(i).toString());
+            }
         }
+        return unifiedDiff;
+    }
 
+    private List<String> generateFileDiff(File originalFolder, File revisedFolder, File originalFile) {
+        List<String> unifiedDiff = new ArrayList<>();
+        String relativePath = originalFolder.toPath().relativize(originalFile.toPath()).toString();
+        File revisedFile = new File(revisedFolder, relativePath);
+        if (!revisedFile.exists()) {
+            unifiedDiff.add("File not found in the revisedFolder folder: " + revisedFile.getPath());
+            return unifiedDiff;
+        }
+        if (!revisedFile.isFile()) return unifiedDiff;
+        try {
+            if (!sameContent(originalFile, revisedFile)) {
+                generateFilesDiff(JAIGJavaHeader.INSTANCE, originalFile, revisedFile, unifiedDiff);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
         return unifiedDiff;
     }
 
-    private void generateFilesDiff(JAIGHeaderValidator jaigHeaderValidator,
-                                   File originalFile, File revisedFile,
-                                   List<String> unifiedDiff) throws IOException {
+    private static boolean sameContent(File originalFile, File revisedFile) throws IOException {
+        if (originalFile.length() != revisedFile.length()) return false;
+        if (WorkspaceIndex.key(originalFile.getPath()) != null && WorkspaceIndex.key(revisedFile.getPath()) != null) {
+            // the hashes are cached in WorkspaceIndex, so the unchanged files are usually not read at all
+            return WorkspaceIndex.INSTANCE.hash(originalFile.getPath())
+                    .equals(WorkspaceIndex.INSTANCE.hash(revisedFile.getPath()));
+        }
+        // the files outside the content root are not indexed, comparing them is cheaper than hashing
+        return Files.mismatch(originalFile.toPath(), revisedFile.toPath()) == -1;
+    }
+
+    void generateFilesDiff(JAIGHeaderValidator jaigHeaderValidator,
+                           File originalFile, File revisedFile,
+                           List<String> unifiedDiff) throws IOException {
         List<String> originalLines = FileUtils.readLines(originalFile, StandardCharsets.UTF_8);
         List<String> revisedLines = FileUtils.readLines(revisedFile, StandardCharsets.UTF_8);
 
@@ -119,6 +167,7 @@ public class PatchGenerator {
         System.out.println("Creating patch for file "+originalFile);
 
         List<DiffRow> diffRows = generator.generateDiffRows(originalLines, revisedLines);
+        Map<String, Integer> oldLineCounts = countOldLines(diffRows);
         long countChanges = diffRows.stream().filter(row -> row.getTag() != DiffRow.Tag.EQUAL).count();
         if (countChanges>0) {
             // if revised file is inside forlder src/main/java
@@ -152,28 +201,25 @@ public class PatchGenerator {
             }
 
             if (isInsert) {
-                previousAfter = addAfterLine(diffRowIndex, diffRows, previousAfter, unifiedDiff, true);
+                previousAfter = addAfterLine(diffRowIndex, diffRows, oldLineCounts, previousAfter, unifiedDiff, true);
                 unifiedDiff.add("   inserted> " + row.getNewLine());
             } else if (isDelete) {
                 final String lineToDelete = row.getOldLine();
                 // if deleted row is trivial, we need to show line after which it was deleted
                 if (//lineToDelete.trim().length() > 3 &&
                     // check previousRow for uniqueness
-                        diffRows.stream().filter(r ->
-                                lineToDelete.trim().equals(r.getOldLine().trim())).count() == 1) {
+                        isUnique(lineToDelete, oldLineCounts)) {
                     // normal delete - no need in <after> line
                 } else {
-                    previousAfter = addAfterLine(diffRowIndex, diffRows, previousAfter, unifiedDiff, false);
+                    previousAfter = addAfterLine(diffRowIndex, diffRows, oldLineCounts, previousAfter, unifiedDiff, false);
                 }
                 unifiedDiff.add("    deleted> " + row.getOldLine());
             } else if (row.getTag() == DiffRow.Tag.CHANGE) {
                 previousAfter = null; // we shouldn't look for previous <after> if we have replacement
                 // if the first old line in not unique
-                if (newLines.isEmpty() && diffRows.stream().filter(r->
-                        r.getOldLine().trim().equals(
-                                row.getOldLine().trim())).count()>1) {
+                if (newLines.isEmpty() && !isUnique(row.getOldLine(), oldLineCounts)) {
                     // we should show the line after which the change was made
-                    previousAfter = addAfterLine(diffRowIndex, diffRows, previousAfter, unifiedDiff, false);
+                    previousAfter = addAfterLine(diffRowIndex, diffRows, oldLineCounts, previousAfter, unifiedDiff, false);
                 } else {
                     previousAfter = null;
                 }
@@ -188,10 +234,27 @@ public class PatchGenerator {
         }
     }
 
+    /**
+     * How many times every trimmed line occurs in the original file,
+     * it is computed once per file to check the lines for uniqueness
+     */
+    private static Map<String, Integer> countOldLines(List<DiffRow> diffRows) {
+        Map<String, Integer> oldLineCounts = new HashMap<>(diffRows.size() * 2);
+        for (DiffRow row : diffRows) {
+            oldLineCounts.merge(row.getOldLine().trim(), 1, Integer::sum);
+        }
+        return oldLineCounts;
+    }
+
+    private static boolean isUnique(String line, Map<String, Integer> oldLineCounts) {
+        return oldLineCounts.getOrDefault(line.trim(), 0) == 1;
+    }
+
     /**
      *
      */ // find the previous row which is unique and not trivial
     private static String addAfterLine(int diffRowIndex, List<DiffRow> diffRows,
+                                       Map<String, Integer> oldLineCounts,
                                        String previousAfter, List<String> unifiedDiff,
                                        boolean includeShift
                                        // we do not know the shift for replacements and deletions,
@@ -205,14 +268,11 @@ public class PatchGenerator {
         // we are looking for previous row which is unique and not trivial
         while (diffRowIndex -shift >= 0) {
             previousRow = diffRows.get(diffRowIndex -shift);
-            DiffRow finalPreviousRow = previousRow;
 
             // check that previousRow is not trivial like closing bracket }
             if (previousRow.getOldLine().trim().length()>5 &&
                     // check previousRow for uniqueness
-                    diffRows.stream().filter(r->
-                            r.getOldLine().trim().equals(
-                                    finalPreviousRow.getOldLine().trim())).count()==1) break;
+                    isUnique(previousRow.getOldLine(), oldLineCounts)) break;
 
             shift++;
             // we should skip INSERT changes when calculating shift
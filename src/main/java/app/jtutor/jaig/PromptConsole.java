@@ -0,0 +1,161 @@
+package app.jtutor.jaig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.function.Supplier;
+
+/**
+ * Routes System.out and System.err to a per-thread buffer.
+ *
+ * When several prompts are processed at the same time, their console output
+ * would be interleaved. Every prompt thread captures its output into its own buffer,
+ * and the buffer is printed as one group when the prompt is finished.
+ * The buffer belongs only to the thread which captures the output: pool threads
+ * (Reactor event loops, ForkJoin workers) can be created by a prompt thread and then
+ * serve other prompts, so the code executed on other threads for the prompt
+ * should print to the stream of out(), taken on the prompt thread.
+ *
+ * JAIG daemon executes one command at a time and attaches the console of the client
+ * (System.out, System.err and System.in) for the time of the command.
+ */
+public class PromptConsole {
+
+    private static final PrintStream STDOUT = System.out;
+    private static final PrintStream STDERR = System.err;
+    private static final InputStream STDIN = System.in;
+
+    private static final ThreadLocal<PrintStream> CAPTURE = new ThreadLocal<>();
+
+    private static boolean installed = false;
+
+    /**
+     * Console of the client of JAIG daemon
+     */
+    public record Session(PrintStream out, PrintStream err, InputStream in) {
+    }
+
+    // console of the command which is executed by JAIG daemon, null if there is no command
+    private static volatile Session session;
+
+    /**
+     * Runs the task and collects everything it prints to System.out and System.err
+     * in the buffer
+     */
+    public static <T> T capture(ByteArrayOutputStream buffer, Supplier<T> task) {
+        return printTo(new PrintStream(buffer, true, Charset.defaultCharset()), task);
+    }
+
+    /**
+     * Runs the task on the current thread, everything it prints to System.out and System.err
+     * goes to the stream (e.g. the stream of out() taken on the prompt thread)
+     */
+    public static <T> T printTo(PrintStream stream, Supplier<T> task) {
+        install();
+        PrintStream previous = CAPTURE.get();
+        CAPTURE.set(stream);
+        try {
+            return task.get();
+        } finally {
+            stream.flush();
+            CAPTURE.set(previous);
+        }
+    }
+
+    /**
+     * Runs the task with System.out, System.err and System.in of the session
+     * (all threads, including the threads of Reactor, print to the session)
+     */
+    public static <T> T attach(Session session, Supplier<T> task) {
+        install();
+        PromptConsole.session = session;
+        try {
+            return task.get();
+        } finally {
+            session.out().flush();
+            session.err().flush();
+            PromptConsole.session = null;
+        }
+    }
+
+    /**
+     * @return the stream which the current thread should print to;
+     * callbacks executed on other threads (like Reactor event loops)
+     * should keep this stream instead of using System.out
+     */
+    public static PrintStream out() {
+        PrintStream captured = CAPTURE.get();
+        return captured != null ? captured : System.out;
+    }
+
+    public static boolean isCapturing() {
+        return CAPTURE.get() != null;
+    }
+
+    private static synchronized void install() {
+        if (installed) return;
+        System.setOut(new PrintStream(new RoutingOutputStream(STDOUT, false), true, Charset.defaultCharset()));
+        System.setErr(new PrintStream(new RoutingOutputStream(STDERR, true), true, Charset.defaultCharset()));
+        System.setIn(new RoutingInputStream());
+        installed = true;
+    }
+
+    private static class RoutingOutputStream extends OutputStream {
+        private final PrintStream console;
+        private final boolean error;
+
+        RoutingOutputStream(PrintStream console, boolean error) {
+            this.console = console;
+            this.error = error;
+        }
+
+        private PrintStream target() {
+            PrintStream captured = CAPTURE.get();
+            if (captured != null) return captured;
+            Session current = session;
+            if (current != null) return error ? current.err() : current.out();
+            return console;
+        }
+
+        @Override
+        public void write(int b) {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+
+    private static class RoutingInputStream extends InputStream {
+
+        private InputStream source() {
+            Session current = session;
+            return current != null ? current.in() : STDIN;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return source().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return source().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return source().available();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package app.jtutor.jaig;
+
+import app.jtutor.jaig.config.GlobalConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Runs the prompts of a folder (usually NN_name folders with one prompt in each)
+ * in parallel waves.
+ *
+ * Prompt B depends on prompt A (A is earlier in the folder order) if one of B's
+ * inclusion lines (./file or /file) matches a file which A writes:
+ * A's -response.txt, files in A's -parsed folder or the files which are written
+ * from A's -parsed folder to srcFolder (testFolder for #test, content root for #save-to).
+ * If A was never parsed, we don't know which files it writes, so B depends on A
+ * if B includes anything from the folder where A writes its results or from A's -parsed folder.
+ * B also depends on A if both of them write the same file (or one of them was never parsed
+ * and their target folders overlap): B's rollback restores the file from B's backup,
+ * so B should be processed after A, like in the folder order.
+ *
+ * Every wave contains the prompts whose dependencies are processed in the previous waves.
+ * The prompts of a wave are executed by BatchExecutor.
+ */
+public class PromptScheduler {
+
+    private final LifecyclePhasesProcessor lifecyclePhasesProcessor;
+
+    public PromptScheduler(LifecyclePhasesProcessor lifecyclePhasesProcessor) {
+        this.lifecyclePhasesProcessor = lifecyclePhasesProcessor;
+    }
+
+    public void execute(List<String> prompts) throws IOException {
+        int maxParallelPrompts = GlobalConfig.INSTANCE.getMaxParallelPrompts();
+        // prompts are not reordered if they are processed one after another
+        List<List<String>> waves = maxParallelPrompts <= 1 ? List.of(prompts) : planWaves(prompts);
+
+        System.out.println("\n********** JAIG: Prompts Scheduler **********");
+        for (int i = 0; i < waves.size(); i++) {
+            System.out.println("Wave " + (i + 1) + ":");
+            waves.get(i).forEach(prompt -> System.out.println("    " + prompt));
+        }
+        if (maxParallelPrompts <= 1) {
+            System.out.println("maxParallelPrompts is 1 in JAIG.yaml, prompts will be processed one after another");
+        }
+        System.out.println("*********************************************");
+
+        BatchExecutor batchExecutor = new BatchExecutor(lifecyclePhasesProcessor);
+        for (int i = 0; i < waves.size(); i++) {
+            System.out.println("\n********** JAIG: Wave " + (i + 1) + " of " + waves.size() + " **********");
+            batchExecutor.execute(waves.get(i), maxParallelPrompts);
+        }
+    }
+
+    /**
+     * Splits prompts into waves: a prompt is put to the next wave after the last of its dependencies
+     *
+     * @param prompts - prompts sorted in the order of processing
+     */
+    List<List<String>> planWaves(List<String> prompts) throws IOException {
+        List<List<Integer>> dependencies = dependencies(prompts);
+
+        int[] waveOfPrompt = new int[prompts.size()];
+        List<List<String>> waves = new ArrayList<>();
+        for (int b = 0; b < prompts.size(); b++) {
+            int wave = 0;
+            for (int a : dependencies.get(b)) {
+                wave = Math.max(wave, waveOfPrompt[a] + 1);
+            }
+            waveOfPrompt[b] = wave;
+            if (waves.size() == wave) waves.add(new ArrayList<>());
+            waves.get(wave).add(prompts.get(b));
+        }
+        return waves;
+    }
+
+    /**
+     * Finds the dependencies of the prompts, it should be done before the rollback of the prompts
+     * (the rollback deletes -parsed folders, which show the files written by the prompts)
+     *
+     * @param prompts - prompts sorted in the order of processing
+     * @return for every prompt, the indexes of the earlier prompts which it depends on
+     */
+    static List<List<Integer>> dependencies(List<String> prompts) throws IOException {
+        List<PromptFiles> promptFiles = new ArrayList<>();
+        for (String prompt : prompts) {
+            promptFiles.add(readPromptFiles(prompt));
+        }
+        List<List<Integer>> dependencies = new ArrayList<>();
+        for (int b = 0; b < promptFiles.size(); b++) {
+            List<Integer> dependenciesOfPrompt = new ArrayList<>();
+            for (int a = 0; a < b; a++) {
+                if (dependsOn(promptFiles.get(b), promptFiles.get(a))) dependenciesOfPrompt.add(a);
+            }
+            dependencies.add(dependenciesOfPrompt);
+        }
+        return dependencies;
+    }
+
+    private static boolean dependsOn(PromptFiles b, PromptFiles a) {
+        for (PathMatcher inclusion : b.inclusions()) {
+            for (Path writtenFile : a.writtenFiles()) {
+                if (inclusion.matches(writtenFile)) return true;
+            }
+        }
+        if (!a.parsed()) {
+            // a was never parsed: b depends on it if b includes files from a's target or -parsed folder
+            if (b.inclusionPrefixes().stream().anyMatch(prefix ->
+                    overlaps(prefix, a.targetFolder()) || overlaps(prefix, a.parsedFolder()))) return true;
+        }
+        // write after write: b and a write the same file
+        if (!a.parsed() || !b.parsed()) {
+            return overlaps(b.targetFolder(), a.targetFolder());
+        }
+        Set<Path> writtenByA = new HashSet<>(a.writtenFiles());
+        return b.writtenFiles().stream().anyMatch(writtenByA::contains);
+    }
+
+    // one path is in the other one: whole names are compared, so src/main/java2 is not in src/main/java
+    private static boolean overlaps(String path, String folder) {
+        Path normalizedPath = Paths.get(path).toAbsolutePath().normalize();
+        Path normalizedFolder = Paths.get(folder).toAbsolutePath().normalize();
+        return normalizedPath.startsWith(normalizedFolder) || normalizedFolder.startsWith(normalizedPath);
+    }
+
+    private static PromptFiles readPromptFiles(String prompt) throws IOException {
+        String promptFolder = Paths.get(prompt).getParent().toString();
+        List<PathMatcher> inclusions = new ArrayList<>();
+        List<String> inclusionPrefixes = new ArrayList<>();
+        String targetFolder = GlobalConfig.INSTANCE.getSrcFolder();
+        for (String line : Files.readAllLines(Paths.get(prompt))) {
+            if (LifecyclePhasesProcessor.isInclusion(line)) {
+                String pattern = LifecyclePhasesProcessor.inclusionPattern(line, promptFolder)
+                        .replace(File.separator, "/");
+                inclusions.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+                inclusionPrefixes.add(InclusionResolver.literalPrefix(pattern));
+            } else if (line.startsWith("#test")) {
+                targetFolder = GlobalConfig.INSTANCE.getTestFolder();
+            } else if (line.startsWith("#save-to:")) {
+                targetFolder = ".";
+            }
+        }
+        targetFolder = normalize(targetFolder);
+
+        // files which were written by the previous run of the prompt
+        String parsedFolder = prompt.replace(".txt", "-parsed");
+        boolean parsed = Files.isDirectory(Paths.get(parsedFolder));
+        List<Path> writtenFiles = new ArrayList<>();
+        writtenFiles.add(Paths.get(normalize(prompt.replace(".txt", "-response.txt"))));
+        if (parsed) {
+            try (Stream<Path> files = Files.walk(Paths.get(parsedFolder))) {
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    String relativePath = Paths.get(parsedFolder).relativize(file).toString();
+                    writtenFiles.add(Paths.get(normalize(file.toString())));
+                    writtenFiles.add(Paths.get(normalize(targetFolder + "/" + relativePath)));
+                }
+            }
+        }
+        return new PromptFiles(inclusions, inclusionPrefixes, writtenFiles,
+                parsed, targetFolder, normalize(parsedFolder));
+    }
+
+    // path in the same format as inclusion patterns: ./folder/file
+    private static String normalize(String path) {
+        String normalized = Path.of(path).normalize().toString().replace(File.separator, "/");
+        return normalized.isEmpty() ? "." : "./" + normalized;
+    }
+
+    /**
+     * @param inclusions - matchers for the inclusion lines of the prompt
+     * @param inclusionPrefixes - folders (or files) which the inclusion lines point to
+     * @param writtenFiles - files written by the previous run of the prompt
+     * @param parsed - false if the response of the prompt was never parsed
+     * @param targetFolder - folder where the parsed files are written
+     * @param parsedFolder - -parsed folder of the prompt
+     */
+    private record PromptFiles(List<PathMatcher> inclusions, List<String> inclusionPrefixes,
+                               List<Path> writtenFiles, boolean parsed,
+                               String targetFolder, String parsedFolder) {
+    }
+}
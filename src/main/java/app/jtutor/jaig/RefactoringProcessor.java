@@ -1,5 +1,6 @@
 package app.jtutor.jaig;
 
+import app.jtutor.JAIG;
 import app.jtutor.jaig.config.GlobalConfig;
 
 import java.io.IOException;
@@ -165,7 +166,7 @@ public class RefactoringProcessor {
         System.out.println("You should select at least one line of code");
         System.out.println("    If you selected lines, but still see this message,");
         System.out.println("    probably you are not focused on the code editor window");
-        System.exit(1);
+        JAIG.exit(1);
     }
 
 
@@ -0,0 +1,125 @@
+package app.jtutor.jaig;
+
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of AI responses (folder JAIG/cache).
+ *
+ * The key is SHA-256 of the request body, the API it is sent to (endpoint, gptProxy, Azure deployment),
+ * model, temperature and seed, so the same request returns the same response without calling the API.
+ * When the size of the cache is more than responseCacheMaxSizeMb (JAIG.yaml),
+ * the least recently used responses are removed.
+ */
+public class ResponseCache {
+    public static ResponseCache INSTANCE = new ResponseCache(Path.of("JAIG/cache"));
+
+    private final Path cacheFolder;
+
+    public ResponseCache(Path cacheFolder) {
+        this.cacheFolder = cacheFolder;
+    }
+
+    /**
+     * @param deploymentIdOrModel - Azure deployment, null for other endpoints
+     */
+    public static String key(String requestBody, String endpoint, boolean gptProxy, String deploymentIdOrModel,
+                             String model, Double temperature, Integer seed) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((endpoint + "\n" + gptProxy + "\n" + deploymentIdOrModel + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            digest.update((model + "\n" + temperature + "\n" + seed + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(requestBody.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return cached response or null if there is no response for this key
+     */
+    public String get(String key) {
+        Path responseFile = cacheFolder.resolve(key + ".txt");
+        if (!Files.exists(responseFile)) return null;
+        try {
+            String response = Files.readString(responseFile, StandardCharsets.UTF_8);
+            // the last modified time is used to find the least recently used responses
+            Files.setLastModifiedTime(responseFile, FileTime.fromMillis(System.currentTimeMillis()));
+            return response;
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot read cached response " + responseFile);
+            return null;
+        }
+    }
+
+    public void put(String key, String response, long maxSizeBytes) {
+        try {
+            Files.createDirectories(cacheFolder);
+            Path tempFile = Files.createTempFile(cacheFolder, key, ".tmp");
+            Files.writeString(tempFile, response, StandardCharsets.UTF_8);
+            Files.move(tempFile, cacheFolder.resolve(key + ".txt"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            evict(maxSizeBytes);
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot save response to the cache " + cacheFolder + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the least recently used responses until the cache is not bigger than maxSizeBytes
+     */
+    synchronized void evict(long maxSizeBytes) throws IOException {
+        List<Path> responseFiles;
+        try (Stream<Path> files = Files.list(cacheFolder)) {
+            responseFiles = new ArrayList<>(files.filter(f -> f.toString().endsWith(".txt")).toList());
+        }
+        long cacheSize = 0;
+        for (Path responseFile : responseFiles) {
+            cacheSize += Files.size(responseFile);
+        }
+        if (cacheSize <= maxSizeBytes) return;
+
+        responseFiles.sort(Comparator.comparing(ResponseCache::lastModified));
+        for (Path responseFile : responseFiles) {
+            if (cacheSize <= maxSizeBytes) break;
+            long size = Files.size(responseFile);
+            Files.deleteIfExists(responseFile);
+            cacheSize -= size;
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    /**
+     * Splits the cached response into tokens like the ones we get from the API:
+     * every line is split before spaces, line ends are kept
+     */
+    public static Flux<String> replay(String response) {
+        List<String> tokens = new ArrayList<>();
+        for (String line : response.split("(?<=\n)")) {
+            tokens.addAll(List.of(line.split("(?= )")));
+        }
+        return Flux.fromIterable(tokens);
+    }
+}
@@ -0,0 +1,257 @@
+package app.jtutor.jaig;
+
+import java.io.PrintWriter;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Renders the streamed AI response to the console and collects the text of the response.
+ *
+ * Every chunk is scanned once, character by character:
+ * 1) [[[newline]]] and [[[space]]] (sent by JTutor proxy) are decoded,
+ *    [[[newline]]] inside a string literal is decoded to \n
+ * 2) lines starting with `` are skipped (AI marks code blocks with ```java ... ```)
+ * 3) keywords and braces are printed in blue, strings in green, comments in gray,
+ *    long lines are wrapped on the console
+ * In headless mode (headless in JAIG.yaml) the response is printed without colors and wrapping.
+ * The new text of the response can be passed to a listener after every chunk (see StreamingCodeParser).
+ */
+public class ResponseRenderer {
+    public static final String ANSI_BOLD = "\u001B[1m";
+    public static final String ANSI_BLUE = "\u001B[34m";
+    public static final String ANSI_RESET = "\u001B[0m";
+    public static final String ANSI_GREEN = "\u001B[32m";
+    public static final String ANSI_GRAY = "\u001B[90m";
+
+    private static final String NEWLINE_MARKER = "[[[newline]]]";
+    private static final String SPACE_MARKER = "[[[space]]]";
+    private static final int LINE_WIDTH = 40;
+
+    private static final Set<String> JAVA_KEYWORDS = Set.of(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+            "for", "if", "goto", "implements", "import", "instanceof", "int", "interface", "long", "native",
+            "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp",
+            "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void",
+            "volatile", "while"
+    );
+
+    private final PrintWriter out;
+    private final boolean ansi;
+    private final Consumer<String> resultListener;
+    // length of the result which was passed to resultListener
+    private int resultPassed;
+
+    // text of the response (without code block marks and ANSI codes)
+    private final StringBuilder result = new StringBuilder();
+    // console output of the current chunk
+    private final StringBuilder console = new StringBuilder();
+    // identifier which is not finished yet (it can be a keyword)
+    private final StringBuilder word = new StringBuilder();
+
+    private boolean started;
+    private boolean lineStart = true;
+    private int lineStartBackticks;
+    private boolean skipLine;
+
+    private boolean inString;
+    private boolean escape;
+    private boolean lineComment;
+    private boolean blockComment;
+    private boolean pendingSlash;
+    private char previous;
+    private int column;
+
+    /**
+     * @param out - console of the prompt
+     * @param ansi - false for headless mode: no colors and no wrapping of long lines
+     */
+    public ResponseRenderer(PrintWriter out, boolean ansi) {
+        this(out, ansi, null);
+    }
+
+    /**
+     * @param resultListener - gets the new text of the response after every chunk, can be null
+     */
+    public ResponseRenderer(PrintWriter out, boolean ansi, Consumer<String> resultListener) {
+        this.out = out;
+        this.ansi = ansi;
+        this.resultListener = resultListener;
+    }
+
+    public void accept(String chunk) {
+        if (!started) {
+            started = true;
+            out.println(bold("========================== AI RESPONSE ==========================\n"));
+        }
+        for (int i = 0; i < chunk.length(); i++) {
+            char c = chunk.charAt(i);
+            if (c == '[' && chunk.startsWith(NEWLINE_MARKER, i)) {
+                acceptChar('\n', true);
+                i += NEWLINE_MARKER.length() - 1;
+            } else if (c == '[' && chunk.startsWith(SPACE_MARKER, i)) {
+                acceptChar(' ', false);
+                i += SPACE_MARKER.length() - 1;
+            } else {
+                acceptChar(c, false);
+            }
+        }
+        flushConsole();
+        passResult();
+    }
+
+    public void complete() {
+        if (lineStartBackticks == 1) writeChar('`');
+        lineStartBackticks = 0;
+        if (pendingSlash) emit('/');
+        pendingSlash = false;
+        flushWord();
+        if (ansi) console.append(ANSI_RESET);
+        flushConsole();
+        passResult();
+        out.println(bold("\n\n====================== END OF AI RESPONSE ======================"));
+    }
+
+    private void passResult() {
+        if (resultListener != null && result.length() > resultPassed) {
+            resultListener.accept(result.substring(resultPassed));
+            resultPassed = result.length();
+        }
+    }
+
+    public String getResult() {
+        return result.toString();
+    }
+
+    private void acceptChar(char c, boolean newlineMarker) {
+        if (skipLine) {
+            if (c == '\n') {
+                skipLine = false;
+                lineStart = true;
+            }
+            return;
+        }
+        if (lineStart) {
+            if (c == '`') {
+                if (++lineStartBackticks == 2) {
+                    // ``` line: the start or the end of the code block
+                    lineStartBackticks = 0;
+                    lineStart = false;
+                    skipLine = true;
+                }
+                return;
+            }
+            lineStart = false;
+            if (lineStartBackticks == 1) writeChar('`');
+            lineStartBackticks = 0;
+        }
+        if (c == '\n' && newlineMarker && inString) {
+            // new line inside a string literal is an escape sequence
+            writeChar('\\');
+            writeChar('n');
+            return;
+        }
+        writeChar(c);
+        if (c == '\n') lineStart = true;
+    }
+
+    private void writeChar(char c) {
+        result.append(c);
+        if (pendingSlash) {
+            pendingSlash = false;
+            if (c == '/' || c == '*') {
+                flushWord();
+                if (c == '/') {
+                    lineComment = true;
+                    if (ansi) console.append(ANSI_GRAY);
+                    // division slashes are printed instead of // to be different from the code
+                    emit(ansi ? '\u2215' : '/');
+                    emit(ansi ? '\u2215' : '/');
+                } else {
+                    blockComment = true;
+                    if (ansi) console.append(ANSI_GRAY);
+                    emit('/');
+                    emit('*');
+                    previous = 0;
+                }
+                return;
+            }
+            emit('/');
+        }
+        if (lineComment) {
+            if (c == '\n') {
+                lineComment = false;
+                if (ansi) console.append(ANSI_RESET);
+            }
+            emit(c);
+        } else if (blockComment) {
+            emit(c);
+            if (previous == '*' && c == '/') {
+                blockComment = false;
+                if (ansi) console.append(ANSI_RESET);
+            }
+            previous = c;
+        } else if (inString) {
+            emit(c);
+            if (escape) {
+                escape = false;
+            } else if (c == '\\') {
+                escape = true;
+            } else if (c == '"') {
+                inString = false;
+                if (ansi) console.append(ANSI_RESET);
+            }
+        } else if (Character.isJavaIdentifierPart(c)) {
+            word.append(c);
+        } else {
+            flushWord();
+            if (c == '"') {
+                inString = true;
+                if (ansi) console.append(ANSI_GREEN);
+                emit(c);
+            } else if (c == '/') {
+                pendingSlash = true;
+            } else if ((c == '{' || c == '}') && ansi) {
+                console.append(ANSI_BLUE);
+                emit(c);
+                console.append(ANSI_RESET);
+            } else {
+                emit(c);
+            }
+        }
+    }
+
+    private void flushWord() {
+        if (word.isEmpty()) return;
+        boolean keyword = ansi && word.length() <= 12 && JAVA_KEYWORDS.contains(word.toString());
+        if (keyword) console.append(ANSI_BLUE);
+        for (int i = 0; i < word.length(); i++) {
+            emit(word.charAt(i));
+        }
+        if (keyword) console.append(ANSI_RESET);
+        word.setLength(0);
+    }
+
+    private void emit(char c) {
+        console.append(c);
+        if (!ansi) return;
+        if (c == '\n') {
+            column = 0;
+        } else if (++column > LINE_WIDTH && " \t{};])".indexOf(c) >= 0) {
+            // the console is narrow, so the long lines are wrapped
+            console.append('\n');
+            column = 0;
+        }
+    }
+
+    private void flushConsole() {
+        if (console.isEmpty()) return;
+        out.print(console);
+        out.flush();
+        console.setLength(0);
+    }
+
+    private String bold(String text) {
+        return ansi ? ANSI_RESET + ANSI_BOLD + text + ANSI_RESET : text;
+    }
+}
@@ -0,0 +1,290 @@
+package app.jtutor.jaig;
+
+import app.jtutor.daemon.JAIGDaemon;
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The operations of a rollback file (prompt-parsed.rollback) and their restore.
+ *
+ * The .rollback file is a text file, which can be read and applied by the user.
+ * PHASE 7 also saves the operations in binary form next to it (prompt-parsed.rollback.bin)
+ * with the size and the hash of every backup, so the rollback before the next prompt
+ * doesn't parse the text and doesn't copy the files which already have the content of the backup.
+ * The binary file is used only while the .rollback file is not changed (the same size and last modified time),
+ * otherwise the text is parsed (like for the rollback files of the previous versions of JAIG).
+ *
+ * The operations are applied in parallel by the folders of the files,
+ * the empty folders are deleted after that in one pass from the deepest folder.
+ */
+class RollbackManifest {
+
+    private static final int VERSION = 1;
+
+    enum Operation { RESTORE, DELETE }
+
+    /**
+     * @param file - file in src folder
+     * @param backupFile - RESTORE: the file is restored from it
+     * @param backupSize - RESTORE: size of the backup, -1 if it is not known
+     * @param backupHash - RESTORE: SHA-256 of the backup, null if it is not known
+     */
+    record Entry(Operation operation, String file, String backupFile, long backupSize, String backupHash) {
+    }
+
+    private final List<Entry> entries;
+    // the lines which are not recognized, the rollback is not complete
+    private final List<String> errors;
+
+    private RollbackManifest(List<Entry> entries, List<String> errors) {
+        this.entries = entries;
+        this.errors = errors;
+    }
+
+    static Path binaryFile(String rollbackFile) {
+        return Paths.get(rollbackFile + ".bin");
+    }
+
+    /**
+     * Parses the lines of the rollback file:
+     *   Restore src/main/java/com/luxoft/eduplatform/controllers/EnrollmentController.java
+     *   from    generated_requests/enrollment2/04_controller/controller-backup/com/luxoft/eduplatform/controllers/EnrollmentController.java
+     *   Delete  ./rest/prepare-test-enrollments.http
+     */
+    static RollbackManifest parse(List<String> lines) {
+        List<Entry> entries = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith("Restore") && i + 1 < lines.size()) {
+                String file = line.replaceFirst("Restore\\s+", "");
+                String backupFile = lines.get(++i).replaceFirst("from\\s+", "");
+                entries.add(new Entry(Operation.RESTORE, file, backupFile, -1, null));
+            } else if (line.startsWith("Delete")) {
+                entries.add(new Entry(Operation.DELETE, line.replaceFirst("Delete\\s+", ""), null, -1, null));
+            } else {
+                errors.add("line " + (i + 1) + " is not recognized:\n" + line);
+            }
+        }
+        return new RollbackManifest(entries, errors);
+    }
+
+    /**
+     * @return the operations of the rollback file, from the binary file if it was saved for this rollback file
+     */
+    static RollbackManifest load(String rollbackFile) throws IOException {
+        Path binaryFile = binaryFile(rollbackFile);
+        if (Files.exists(binaryFile)) {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(rollbackFile), BasicFileAttributes.class);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(binaryFile)))) {
+                if (in.readInt() == VERSION && in.readLong() == attributes.size()
+                        && in.readLong() == attributes.lastModifiedTime().toMillis()) {
+                    int count = in.readInt();
+                    List<Entry> entries = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        Operation operation = Operation.values()[in.readByte()];
+                        String file = in.readUTF();
+                        if (operation == Operation.RESTORE) {
+                            String backupFile = in.readUTF();
+                            long backupSize = in.readLong();
+                            String backupHash = in.readUTF();
+                            entries.add(new Entry(operation, file, backupFile, backupSize,
+                                    backupHash.isEmpty() ? null : backupHash));
+                        } else {
+                            entries.add(new Entry(operation, file, null, -1, null));
+                        }
+                    }
+                    return new RollbackManifest(entries, List.of());
+                }
+            } catch (IOException | ArrayIndexOutOfBoundsException e) {
+                // the text is parsed
+            }
+        }
+        return parse(Files.readAllLines(Paths.get(rollbackFile), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Saves the operations of the rollback file (it should be already written) with the hashes of the backups
+     */
+    void save(String rollbackFile) {
+        Path binaryFile = binaryFile(rollbackFile);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(rollbackFile), BasicFileAttributes.class);
+            Path tempFile = Files.createTempFile(binaryFile.toAbsolutePath().getParent(), "rollback", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(VERSION);
+                out.writeLong(attributes.size());
+                out.writeLong(attributes.lastModifiedTime().toMillis());
+                out.writeInt(entries.size());
+                for (Entry entry : entries) {
+                    out.writeByte(entry.operation().ordinal());
+                    out.writeUTF(entry.file());
+                    if (entry.operation() == Operation.RESTORE) {
+                        Path backup = Paths.get(entry.backupFile());
+                        boolean exists = Files.exists(backup);
+                        out.writeUTF(entry.backupFile());
+                        out.writeLong(exists ? Files.size(backup) : -1);
+                        out.writeUTF(exists ? WorkspaceIndex.INSTANCE.hash(entry.backupFile()) : "");
+                    }
+                }
+            }
+            Files.move(tempFile, binaryFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot save " + binaryFile + ", the text of the rollback will be used");
+        }
+    }
+
+    /**
+     * The binary file follows the rollback file (-parsed.rollback => -full.rollback)
+     */
+    static void move(String rollbackFile, String newRollbackFile) {
+        try {
+            if (Files.exists(binaryFile(rollbackFile))) {
+                Files.move(binaryFile(rollbackFile), binaryFile(newRollbackFile), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot move " + binaryFile(rollbackFile));
+        }
+    }
+
+    static void delete(String rollbackFile) {
+        FileUtils.deleteQuietly(binaryFile(rollbackFile).toFile());
+    }
+
+    /**
+     * Restores the files from the backups and deletes the created files (and their copies in parsedFolder)
+     *
+     * @return true if all operations are applied
+     */
+    boolean restore(String srcFolder, String parsedFolder) {
+        errors.forEach(error -> System.out.println("Cannot parse rollback file: " + error));
+        boolean restored = errors.isEmpty();
+
+        // the files of the same folder are restored in one task
+        Map<String, List<Entry>> entriesByFolder = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            String folder = new File(entry.file()).getParent();
+            entriesByFolder.computeIfAbsent(String.valueOf(folder), f -> new ArrayList<>()).add(entry);
+        }
+        // the pool is set explicitly: with 1-2 CPUs supplyAsync would start a new thread for every folder;
+        // with 1 CPU the folders are restored in the current thread
+        Executor executor = ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool() : Runnable::run;
+        List<CompletableFuture<List<String>>> tasks = new ArrayList<>();
+        List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        for (List<Entry> folderEntries : entriesByFolder.values()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            outputs.add(output);
+            tasks.add(CompletableFuture.supplyAsync(() ->
+                    PromptConsole.capture(output, () -> apply(folderEntries, srcFolder, parsedFolder)), executor));
+        }
+        // the folders of the deleted files, they are deleted if they are empty
+        Set<String> deletedFrom = new TreeSet<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                deletedFrom.addAll(tasks.get(i).join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof JAIGDaemon.CommandExit exit) throw exit;
+                System.out.println("ERROR: " + e.getCause().getMessage());
+                restored = false;
+            } finally {
+                System.out.print(outputs.get(i).toString());
+            }
+        }
+        deleteEmptyFolders(deletedFrom);
+
+        for (Entry entry : entries) {
+            if (entry.operation() == Operation.RESTORE && !new File(entry.backupFile()).exists()) {
+                restored = false;
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * @return the folders of the deleted files
+     */
+    private static List<String> apply(List<Entry> entries, String srcFolder, String parsedFolder) {
+        List<String> deletedFrom = new ArrayList<>();
+        try {
+            for (Entry entry : entries) {
+                if (entry.operation() == Operation.RESTORE) {
+                    restoreFile(entry);
+                } else {
+                    FileUtils.deleteQuietly(new File(entry.file()));
+                    System.out.println("Deleted file " + entry.file());
+                    deletedFrom.add(new File(entry.file()).getAbsoluteFile().getParent());
+                    // delete file in parsed folder
+                    String fileInParsedFolder = entry.file().replace(srcFolder, parsedFolder);
+                    FileUtils.deleteQuietly(new File(fileInParsedFolder));
+                    System.out.println("Deleted file " + fileInParsedFolder);
+                    deletedFrom.add(new File(fileInParsedFolder).getAbsoluteFile().getParent());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return deletedFrom;
+    }
+
+    private static void restoreFile(Entry entry) throws IOException {
+        File backupFile = new File(entry.backupFile());
+        File file = new File(entry.file());
+        if (!backupFile.exists()) {
+            System.out.println("Cannot restore file " + entry.file() + " from " + entry.backupFile());
+            System.out.println("File " + entry.backupFile() + " doesn't exist");
+            return;
+        }
+        // the file was not changed after it was generated or it is already restored
+        if (entry.backupHash() != null && file.exists() && file.length() == entry.backupSize()
+                && entry.backupHash().equals(WorkspaceIndex.INSTANCE.hash(entry.file()))) {
+            System.out.println("File " + entry.file() + " is the same as the backup");
+            return;
+        }
+        // copy file from backup to the file with replacement
+        FileUtils.copyFile(backupFile, file);
+        System.out.println("Restored file " + entry.file() + "\n" +
+                " from " + entry.backupFile());
+    }
+
+    /**
+     * Deletes the empty folders and their empty parent folders, the deepest folders are deleted first
+     */
+    private static void deleteEmptyFolders(Set<String> folders) {
+        TreeSet<Path> candidates = new TreeSet<>(Comparator.comparingInt(Path::getNameCount).reversed()
+                .thenComparing(Comparator.reverseOrder()));
+        folders.forEach(folder -> candidates.add(Paths.get(folder)));
+        while (!candidates.isEmpty()) {
+            Path folder = candidates.pollFirst();
+            String[] files = folder.toFile().list();
+            if (files == null || files.length > 0) continue;
+            FileUtils.deleteQuietly(folder.toFile());
+            System.out.println("Deleted folder " + folder);
+            if (folder.getParent() != null) candidates.add(folder.getParent());
+        }
+    }
+}
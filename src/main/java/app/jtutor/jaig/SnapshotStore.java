@@ -0,0 +1,180 @@
+package app.jtutor.jaig;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store of the files of src which are backed up by the prompts (folder JAIG/snapshots),
+ * used when snapshotStore is on in JAIG.yaml.
+ *
+ * Every version of a file is stored once in objects/ab/cdef... (the name is SHA-256 of the content),
+ * the files of prompt-backup folders are hard links to the objects (see CopyOnWrite),
+ * so the same content backed up by many prompts of a batch takes the disk space once.
+ * The object is a copy of src file, not a link to it, so the changes of src in the IDE don't change the backups.
+ *
+ * Every backup folder has a tree in trees/ (its path, the hash and the relative path of every file).
+ * gc() deletes the trees of the backup folders which were deleted (by the rollback or manually)
+ * and the objects which are not in any tree.
+ */
+public class SnapshotStore {
+    public static SnapshotStore INSTANCE = new SnapshotStore(Path.of("JAIG/snapshots"));
+
+    private final Path objectsFolder;
+    private final Path treesFolder;
+
+    public SnapshotStore(Path storeFolder) {
+        this.objectsFolder = storeFolder.resolve("objects");
+        this.treesFolder = storeFolder.resolve("trees");
+    }
+
+    /**
+     * The files of one backup folder, written to the store by save()
+     */
+    public class Tree {
+        private final String folder;
+        // relative path -> hash
+        private final Map<String, String> files;
+
+        private Tree(String folder, Map<String, String> files) {
+            this.folder = folder;
+            this.files = files;
+        }
+
+        /**
+         * Stores the content of the file and creates a file of the backup folder with this content
+         *
+         * @param backupFile - the file in the backup folder
+         */
+        public void backup(Path file, Path backupFile) throws IOException {
+            String hash = put(file);
+            Files.createDirectories(backupFile.toAbsolutePath().getParent());
+            CopyOnWrite.copyFile(object(hash), backupFile);
+            synchronized (this) {
+                files.put(Path.of(folder).relativize(backupFile).toString().replace('\\', '/'), hash);
+            }
+        }
+
+        public synchronized void save() {
+            if (files.isEmpty()) return;
+            StringBuilder tree = new StringBuilder(folder).append('\n');
+            files.forEach((path, hash) -> tree.append(hash).append(' ').append(path).append('\n'));
+            try {
+                Files.createDirectories(treesFolder);
+                Path tempFile = Files.createTempFile(treesFolder, "tree", ".tmp");
+                Files.writeString(tempFile, tree, StandardCharsets.UTF_8);
+                Files.move(tempFile, treeFile(folder), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.out.println("WARNING: cannot save the snapshot of " + folder + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param backupFolder - prompt-backup folder, the files of its previous tree are kept
+     */
+    public Tree tree(String backupFolder) {
+        Map<String, String> files = new TreeMap<>();
+        Path treeFile = treeFile(backupFolder);
+        if (Files.exists(treeFile)) {
+            try {
+                // the first line is the backup folder
+                List<String> lines = Files.readAllLines(treeFile, StandardCharsets.UTF_8);
+                for (String line : lines.subList(Math.min(1, lines.size()), lines.size())) {
+                    int space = line.indexOf(' ');
+                    if (space > 0) files.put(line.substring(space + 1), line.substring(0, space));
+                }
+            } catch (IOException e) {
+                System.out.println("WARNING: cannot read " + treeFile + ", a new snapshot is created");
+            }
+        }
+        return new Tree(backupFolder, files);
+    }
+
+    /**
+     * @return hash of the content, the content is copied to the store if it is not there
+     */
+    String put(Path file) throws IOException {
+        String hash = WorkspaceIndex.INSTANCE.hash(file.toString());
+        Path object = object(hash);
+        if (!Files.exists(object)) {
+            Files.createDirectories(object.getParent());
+            Path tempFile = Files.createTempFile(object.getParent(), hash, ".tmp");
+            // the backup keeps the last modified time of src file
+            Files.copy(file, tempFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(tempFile, object, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return hash;
+    }
+
+    /**
+     * Deletes the trees of the deleted backup folders and the objects which are not in the trees
+     */
+    public synchronized void gc() {
+        if (!Files.exists(objectsFolder)) return;
+        Set<String> usedObjects = new HashSet<>();
+        int deletedObjects = 0;
+        try {
+            List<Path> treeFiles = new ArrayList<>();
+            if (Files.exists(treesFolder)) {
+                try (Stream<Path> files = Files.list(treesFolder)) {
+                    treeFiles.addAll(files.filter(f -> f.toString().endsWith(".tree")).toList());
+                }
+            }
+            for (Path treeFile : treeFiles) {
+                List<String> lines = Files.readAllLines(treeFile, StandardCharsets.UTF_8);
+                if (lines.isEmpty() || !Files.isDirectory(Path.of(lines.get(0)))) {
+                    Files.delete(treeFile);
+                    continue;
+                }
+                lines.subList(1, lines.size()).forEach(line -> usedObjects.add(line.substring(0, line.indexOf(' '))));
+            }
+            List<Path> objects;
+            try (Stream<Path> files = Files.walk(objectsFolder, 2)) {
+                objects = files.filter(Files::isRegularFile).toList();
+            }
+            for (Path object : objects) {
+                String hash = object.getParent().getFileName().toString() + object.getFileName();
+                if (!usedObjects.contains(hash)) {
+                    Files.delete(object);
+                    deletedObjects++;
+                    try (Stream<Path> files = Files.list(object.getParent())) {
+                        if (files.findAny().isEmpty()) Files.delete(object.getParent());
+                    }
+                }
+            }
+        } catch (IOException | IndexOutOfBoundsException e) {
+            System.out.println("WARNING: cannot clean " + objectsFolder + ": " + e.getMessage());
+        }
+        if (deletedObjects > 0) {
+            System.out.println("Deleted " + deletedObjects + " unused files from " + objectsFolder);
+        }
+    }
+
+    private Path object(String hash) {
+        return objectsFolder.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    private Path treeFile(String backupFolder) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] key = digest.digest(Path.of(backupFolder).toAbsolutePath().normalize().toString()
+                    .getBytes(StandardCharsets.UTF_8));
+            return treesFolder.resolve(HexFormat.of().formatHex(key) + ".tree");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package app.jtutor.jaig;
+
+import app.jtutor.JAIG;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * PHASE 6 writes the generated files to src folder as one transaction:
+ * 1) the rollback lines of all files (the same lines as in .rollback file) are written
+ *    to the journal prompt-parsed.journal, which is synced to disk before src is changed
+ * 2) every generated file is copied to a temporary file next to its target (.Name.java.jaig-tmp)
+ * 3) the temporary files are renamed to the targets (atomic move), every changed folder is synced once
+ *
+ * The journal is deleted after PHASE 7 has written the rollback file.
+ * If JAIG is stopped before that, the journal is found before the next run of the prompt (see recover)
+ * and src is restored, so src is never left half-written without a rollback.
+ */
+class SrcTransaction {
+
+    private static final String TEMP_SUFFIX = ".jaig-tmp";
+
+    private final Path journalFile;
+    private final List<String> rollbackLog;
+    // target file in src -> generated file
+    private final Map<Path, Path> writes = new LinkedHashMap<>();
+
+    /**
+     * @param journalFile - prompt-parsed.journal
+     * @param rollbackLog - rollback lines of the files, they are added by PHASE 6 before commit
+     */
+    SrcTransaction(String journalFile, List<String> rollbackLog) {
+        this.journalFile = Paths.get(journalFile);
+        this.rollbackLog = rollbackLog;
+    }
+
+    /**
+     * @param inputFile - prompt file (or its -response.txt file)
+     * @return prompt-parsed.journal
+     */
+    static String journalFile(String inputFile) {
+        return inputFile.replace("-response.txt", ".txt").replace(".txt", "-parsed.journal");
+    }
+
+    void write(Path generatedFile, Path targetFile) {
+        writes.put(targetFile, generatedFile);
+    }
+
+    void commit() throws IOException {
+        if (writes.isEmpty()) return;
+        writeJournal();
+        Map<Path, Path> tempFiles = new LinkedHashMap<>();
+        for (Map.Entry<Path, Path> write : writes.entrySet()) {
+            Path target = write.getKey();
+            Files.createDirectories(target.toAbsolutePath().getParent());
+            Path tempFile = tempFile(target);
+            Files.copy(write.getValue(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+            tempFiles.put(target, tempFile);
+        }
+        Set<Path> folders = new LinkedHashSet<>();
+        for (Map.Entry<Path, Path> tempFile : tempFiles.entrySet()) {
+            Path target = tempFile.getKey();
+            try {
+                Files.move(tempFile.getValue(), target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.getValue(), target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            folders.add(target.toAbsolutePath().getParent());
+        }
+        // the renames are on disk before the journal is deleted
+        folders.forEach(SrcTransaction::syncFolder);
+    }
+
+    /**
+     * The rollback file is written, the journal is not needed
+     */
+    void finish() {
+        try {
+            Files.deleteIfExists(journalFile);
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot delete " + journalFile);
+        }
+    }
+
+    private void writeJournal() throws IOException {
+        StringBuilder journal = new StringBuilder();
+        for (String line : rollbackLog) {
+            journal.append(line).append(System.lineSeparator());
+        }
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(journal.toString().getBytes(StandardCharsets.UTF_8)));
+            channel.force(true);
+        }
+        syncFolder(journalFile.toAbsolutePath().getParent());
+    }
+
+    /**
+     * If the journal of the prompt exists, the previous PHASE 6 was not completed:
+     * the files which were written to src are restored from the backups or deleted (if they were created)
+     *
+     * @return true if the journal was applied
+     */
+    static boolean recover(String journalFile) {
+        Path journal = Paths.get(journalFile);
+        if (!Files.exists(journal)) return false;
+        System.out.println("\n*********** JAIG Recovery ***********");
+        System.out.println("Writing to src was interrupted, applying " + journalFile);
+        try {
+            List<String> lines = Files.readAllLines(journal, StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (line.startsWith("Restore") && i + 1 < lines.size()) {
+                    String fileToRestore = line.replaceFirst("Restore\\s+", "");
+                    String backupFile = lines.get(++i).replaceFirst("from\\s+", "");
+                    Files.deleteIfExists(tempFile(Paths.get(fileToRestore)));
+                    FileUtils.copyFile(new File(backupFile), new File(fileToRestore));
+                    System.out.println("Restored file " + fileToRestore);
+                } else if (line.startsWith("Delete")) {
+                    String fileToDelete = line.replaceFirst("Delete\\s+", "");
+                    Files.deleteIfExists(tempFile(Paths.get(fileToDelete)));
+                    if (FileUtils.deleteQuietly(new File(fileToDelete))) {
+                        System.out.println("Deleted file " + fileToDelete);
+                    }
+                    JAIGUseCasesProcessor.deleteEmptyUpperFolders(fileToDelete);
+                }
+            }
+            Files.delete(journal);
+            System.out.println("src is restored, " + journalFile + " is deleted");
+        } catch (IOException e) {
+            System.out.println("ERROR: cannot apply " + journalFile + ": " + e.getMessage());
+            System.out.println("Fix src folder manually and delete the journal");
+            JAIG.exit(-1);
+        }
+        return true;
+    }
+
+    private static Path tempFile(Path target) {
+        return target.resolveSibling("." + target.getFileName() + TEMP_SUFFIX);
+    }
+
+    private static void syncFolder(Path folder) {
+        // the folders cannot be opened for sync on Windows, the rename is durable there anyway
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package app.jtutor.jaig;
+
+import app.jtutor.jaig.config.GlobalConfig;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Parses the response while it is streamed from the AI (streamingParse in JAIG.yaml):
+ * every class is written as soon as its closing bracket is received,
+ * so the first files are ready while the rest of the response is generated.
+ *
+ * The files are written to the staging folder "prompt-parsed-stream", because PHASE 4
+ * (the countdown and the preparation of "prompt-parsed") starts only after the response is complete.
+ * If the final response is the same as the streamed one, PHASE 4 moves the files
+ * to "prompt-parsed" instead of parsing the response again (see moveTo).
+ *
+ * The chunks are received on the Reactor threads: the output is printed to the console of the prompt,
+ * and the errors are not passed to the response stream (it would send the request again),
+ * the streamed files are not used then and PHASE 4 parses the response.
+ */
+public class StreamingCodeParser implements Consumer<String> {
+
+    private final String stagingFolder;
+    private final ContentManifest manifest;
+    private final CodeParser.Splitter splitter;
+    // the whole streamed text, to check that it is the response which is parsed in PHASE 4
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder line = new StringBuilder();
+    // empty lines are accepted only if they are followed by some text
+    // (parse() doesn't get the empty lines at the end of the response)
+    private int emptyLines;
+    private boolean completed;
+    // the parsing failed, the response should be parsed again
+    private volatile boolean failed;
+    // console of the prompt, the chunks are received on the Reactor threads
+    private final PrintStream console = PromptConsole.out();
+
+    /**
+     * @param responseFile - the file where the response is saved (it is written to the header of the files)
+     * @param stagingFolder - where the classes are written while the response is streamed
+     */
+    public StreamingCodeParser(String responseFile, String stagingFolder) {
+        this.stagingFolder = stagingFolder;
+        // the files of the previous response
+        deleteStagingFolder();
+        this.manifest = ContentManifest.load(stagingFolder);
+        this.splitter = new CodeParser.Splitter(responseFile, stagingFolder, manifest, true);
+    }
+
+    /**
+     * @param chunk - the new text of the response (after ResponseRenderer)
+     */
+    @Override
+    public void accept(String chunk) {
+        text.append(chunk);
+        if (failed) return;
+        run(() -> {
+            for (int i = 0; i < chunk.length(); i++) {
+                char c = chunk.charAt(i);
+                if (c == '\n') {
+                    acceptLine(line.toString());
+                    line.setLength(0);
+                } else {
+                    line.append(c);
+                }
+            }
+        });
+    }
+
+    private void run(Runnable parsing) {
+        try {
+            PromptConsole.printTo(console, () -> {
+                parsing.run();
+                return null;
+            });
+        } catch (RuntimeException e) {
+            failed = true;
+            console.println("WARNING: the response cannot be parsed while it is streamed, "
+                    + "it will be parsed when it is complete: " + e.getMessage());
+        }
+    }
+
+    private void acceptLine(String line) {
+        if (line.isEmpty()) {
+            emptyLines++;
+            return;
+        }
+        for (; emptyLines > 0; emptyLines--) {
+            splitter.accept("");
+        }
+        splitter.accept(line);
+    }
+
+    /**
+     * The response is complete, the last class is written
+     */
+    public void complete() {
+        if (completed) return;
+        completed = true;
+        if (failed) return;
+        run(() -> {
+            if (!line.isEmpty()) acceptLine(line.toString());
+            splitter.finish();
+            manifest.save();
+        });
+    }
+
+    /**
+     * Moves the parsed files to parsedFolder if the response was not changed after it was streamed
+     * (otherwise the staging folder is deleted, and the response should be parsed again)
+     *
+     * @return true if the files are moved
+     */
+    public boolean moveTo(String parsedFolder, String response) {
+        if (!completed || failed || !response.contentEquals(text)) {
+            deleteStagingFolder();
+            return false;
+        }
+        Path staging = Paths.get(stagingFolder);
+        boolean incremental = GlobalConfig.INSTANCE.isIncrementalParse();
+        // incrementalParse: the files of parsedFolder with the same code are not replaced
+        ContentManifest parsedManifest = incremental ? ContentManifest.load(parsedFolder) : null;
+        if (Files.isDirectory(staging)) {
+            try (Stream<Path> paths = Files.walk(staging)) {
+                for (Path file : paths.filter(Files::isRegularFile).toList()) {
+                    Path target = Paths.get(parsedFolder).resolve(staging.relativize(file).toString());
+                    byte[] content = incremental ? Files.readAllBytes(file) : null;
+                    if (incremental && CodeParser.hasSameCode(target, content)) {
+                        System.out.println("Not changed " + target.getFileName() + " in " + target.getParent());
+                        parsedManifest.keep(target);
+                        continue;
+                    }
+                    System.out.println("Moving " + file.getFileName() + " to " + target.getParent());
+                    Files.createDirectories(target.getParent());
+                    Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+                    if (incremental) parsedManifest.record(target, content);
+                }
+            } catch (IOException e) {
+                System.out.println("WARNING: cannot move the parsed files from " + stagingFolder + ": " + e.getMessage());
+                deleteStagingFolder();
+                return false;
+            }
+            if (!incremental) {
+                // the moved files keep their last modified time, so their hashes are still valid
+                ContentManifest.move(stagingFolder, parsedFolder);
+            }
+        }
+        if (incremental) {
+            parsedManifest.deleteNotWritten();
+            parsedManifest.save();
+        }
+        deleteStagingFolder();
+        return true;
+    }
+
+    /**
+     * The streamed files are not needed (the response is not parsed)
+     */
+    public void discard() {
+        deleteStagingFolder();
+    }
+
+    private void deleteStagingFolder() {
+        try {
+            FileUtils.deleteDirectory(new File(stagingFolder));
+            ContentManifest.delete(stagingFolder);
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot delete folder " + stagingFolder);
+        }
+    }
+}
@@ -2,7 +2,7 @@ package app.jtutor.jaig;
 
 import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
+import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
@@ -13,9 +13,13 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,12 +31,35 @@ public class TemplateProcessor {
         }
     }
 
+    private enum Kind { LITERAL, PLACEHOLDER, VELOCITY }
+
+    /**
+     * Part of the template: the text, [[key]] (or [[key|default]]) or [[template.vm]]
+     *
+     * @param text - the text or the key
+     */
+    private record Segment(Kind kind, String text) {
+    }
+
+    private record Cached<T>(FileTime modifiedTime, T value) {
+    }
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\[\\[(.*?)\\]\\]");
+
+    // the templates of the prompts and Velocity templates, JAIG daemon keeps them between the commands
+    private static final Map<Path, Cached<List<Segment>>> SEGMENTS = new ConcurrentHashMap<>();
+    private static final Map<Path, Cached<Template>> TEMPLATES = new ConcurrentHashMap<>();
+
     private static String CONFIG_FILE;
     private static String templateFolder;
     private static Map<String, Object> config = new HashMap<>();
+    // the engine of the current command: JAIG daemon processes the commands with different template folders
+    private static VelocityEngine velocityEngine;
 
     public static void process(String configFile) {
         CONFIG_FILE = configFile;
+        // the values of the previous command (JAIG daemon) are not used
+        config = new HashMap<>();
         System.out.println("Processing templates for "+CONFIG_FILE);
         loadYamlConfig();
         templateFolder = (String) config.get("template");
@@ -61,7 +88,8 @@ public class TemplateProcessor {
                 "org.apache.velocity.runtime.resource.loader.FileResourceLoader");
         properties.setProperty("resource.loader.file.path",
                 templateFolder.toString());
-        Velocity.init(properties);
+        velocityEngine = new VelocityEngine();
+        velocityEngine.init(properties);
     }
 
     private static void loadYamlConfig() {
@@ -133,10 +161,8 @@ public class TemplateProcessor {
                     // Process all .txt and .patch files
                     System.out.println("Processing template: "+src.getFileName()+
                             " -> "+destination+"/"+dest.getFileName());
-                    String content = new String(Files.readAllBytes(src), StandardCharsets.UTF_8);
-
                     try {
-                        content = replacePlaceholders(content, src.getParent(), src.getFileName().toString());
+                        String content = replacePlaceholders(segments(src), src.getParent(), src.getFileName().toString());
 
                         if (content.length()>0) {
                             Files.write(dest, content.getBytes(StandardCharsets.UTF_8));
@@ -154,41 +180,64 @@ public class TemplateProcessor {
         });
     }
 
-    private static String replacePlaceholders(String content, Path currentDir, String fileName) throws KeyNotFoundException {
-        Pattern pattern = Pattern.compile("\\[\\[(.*?)\\]\\]");
-        Matcher matcher = pattern.matcher(content);
+    /**
+     * Parses the template into the segments, the templates are parsed once and cached until they are changed
+     */
+    private static List<Segment> segments(Path templateFile) throws IOException {
+        FileTime modifiedTime = Files.getLastModifiedTime(templateFile);
+        Cached<List<Segment>> cached = SEGMENTS.get(templateFile);
+        if (cached != null && cached.modifiedTime().equals(modifiedTime)) return cached.value();
 
+        String content = new String(Files.readAllBytes(templateFile), StandardCharsets.UTF_8);
+        List<Segment> segments = new ArrayList<>();
+        Matcher matcher = PLACEHOLDER.matcher(content);
+        int start = 0;
         while (matcher.find()) {
+            if (matcher.start() > start) {
+                segments.add(new Segment(Kind.LITERAL, content.substring(start, matcher.start())));
+            }
             String key = matcher.group(1);
-            if (key.endsWith(".vm")) {
-                // processing Velocity template
-                Path vmFilePath = currentDir.resolve(key);
-
-                if (Files.exists(vmFilePath)) {
-                    VelocityContext context = new VelocityContext();
-                    for (Map.Entry<String, Object> entry : config.entrySet()) {
-                        context.put(entry.getKey(), entry.getValue());
-                    }
+            segments.add(new Segment(key.endsWith(".vm") ? Kind.VELOCITY : Kind.PLACEHOLDER, key));
+            start = matcher.end();
+        }
+        if (start < content.length()) segments.add(new Segment(Kind.LITERAL, content.substring(start)));
+        SEGMENTS.put(templateFile, new Cached<>(modifiedTime, segments));
+        return segments;
+    }
 
-                    StringWriter writer = new StringWriter();
+    /**
+     * Renders the segments of the template in one pass:
+     * [[key]] is replaced by the value from YAML, [[key|default]] by the value or the default value,
+     * [[template.vm]] by the result of Velocity template (it is also saved to the config as [[template.vm]] key)
+     */
+    private static String replacePlaceholders(List<Segment> segments, Path currentDir, String fileName) throws KeyNotFoundException {
+        StringBuilder content = new StringBuilder();
+        // every Velocity template is merged once for the file
+        Map<String, String> mergedTemplates = new HashMap<>();
 
-                    try {
-                        // To this (get only the relative path)
-                        Path templateFolderPath = Paths.get(templateFolder);
-                        String relativePath = templateFolderPath.toAbsolutePath().relativize(vmFilePath).toString();
-                        Template template = Velocity.getTemplate(relativePath);
-                        template.merge(context, writer);
-
-                        config.put(key, writer.toString());
-                    } catch (ResourceNotFoundException | ParseErrorException | MethodInvocationException e) {
-                        // Handle exceptions as needed
-                        System.err.println("ERROR when processing Velocity template: " + e.getMessage());
+        for (Segment segment : segments) {
+            String key = segment.text();
+            switch (segment.kind()) {
+                case LITERAL -> content.append(key);
+                case VELOCITY -> {
+                    String merged = mergedTemplates.get(key);
+                    if (merged == null) {
+                        merged = mergeVelocityTemplate(currentDir.resolve(key));
+                        if (merged != null) {
+                            config.put(key, merged);
+                            mergedTemplates.put(key, merged);
+                        } else {
+                            // the template is not processed, the result of the previous file is used if there is one
+                            merged = config.containsKey(key) ? config.get(key).toString() : "[[" + key + "]]";
+                        }
                     }
-                } else {
-                    System.err.println("ERROR: Velocity Template file not found: " + vmFilePath);
+                    content.append(merged);
                 }
-            } else {
-                if (!config.containsKey(key)) {
+                case PLACEHOLDER -> {
+                    if (config.containsKey(key)) {
+                        content.append(config.get(key).toString());
+                        continue;
+                    }
                     if (!key.contains("|")) {
                         throw new KeyNotFoundException("Key is not defined in YAML: [[" + key + "]]");
                     }
@@ -196,19 +245,52 @@ public class TemplateProcessor {
                     String optionalKey = optionalKeyAndDefault[0];
                     String defaultValue = optionalKeyAndDefault[1];
                     Object valueForOptionalKey = config.getOrDefault(optionalKey, defaultValue);
-                    config.put(optionalKey + "\\|" + defaultValue, valueForOptionalKey);
                     if (!config.containsKey(optionalKey)) {
                         System.out.println("WARNING: Key is not defined in YAML: [[" + optionalKey + "]] but used in template " + fileName);
                         System.out.println("    => using default value: " + valueForOptionalKey);
                     }
+                    content.append(valueForOptionalKey.toString());
                 }
             }
         }
+        return content.toString();
+    }
 
-        for (String key : config.keySet()) {
-            content = content.replaceAll("\\[\\[" + key + "\\]\\]", config.get(key).toString());
+    /**
+     * @return the result of Velocity template with the values from YAML, null if the template cannot be processed
+     */
+    private static String mergeVelocityTemplate(Path vmFilePath) {
+        if (!Files.exists(vmFilePath)) {
+            System.err.println("ERROR: Velocity Template file not found: " + vmFilePath);
+            return null;
         }
+        VelocityContext context = new VelocityContext();
+        for (Map.Entry<String, Object> entry : config.entrySet()) {
+            context.put(entry.getKey(), entry.getValue());
+        }
+
+        StringWriter writer = new StringWriter();
 
-        return content;
+        try {
+            // the templates are parsed once and cached until they are changed
+            FileTime modifiedTime = Files.getLastModifiedTime(vmFilePath);
+            Cached<Template> cached = TEMPLATES.get(vmFilePath);
+            Template template;
+            if (cached != null && cached.modifiedTime().equals(modifiedTime)) {
+                template = cached.value();
+            } else {
+                // get only the relative path
+                Path templateFolderPath = Paths.get(templateFolder);
+                String relativePath = templateFolderPath.toAbsolutePath().relativize(vmFilePath).toString();
+                template = velocityEngine.getTemplate(relativePath);
+                TEMPLATES.put(vmFilePath, new Cached<>(modifiedTime, template));
+            }
+            template.merge(context, writer);
+            return writer.toString();
+        } catch (ResourceNotFoundException | ParseErrorException | MethodInvocationException | IOException e) {
+            // Handle exceptions as needed
+            System.err.println("ERROR when processing Velocity template: " + e.getMessage());
+            return null;
+        }
     }
 }
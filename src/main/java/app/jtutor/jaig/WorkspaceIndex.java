@@ -0,0 +1,426 @@
+package app.jtutor.jaig;
+
+import app.jtutor.jaig.config.GlobalConfig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the files of the project (content root), saved to JAIG/workspace.index between runs.
+ *
+ * For every folder which was listed, the index keeps its last modified time, subfolders and files
+ * (size, last modified time and SHA-256 of the content, which is calculated when it is requested).
+ * Like a folder, a file hashed right after it was modified is hashed again,
+ * because it can be changed again with the same size and the same modified time.
+ * A folder is listed again only if its last modified time is changed (a file was created, deleted or renamed).
+ * A folder modified right before it was listed is listed again, unless watch() is active and WatchService
+ * reported no events for it since then (the modified time of the folder is checked anyway).
+ *
+ * The paths are relative to the content root, like ./src/main/java/A.java
+ */
+public class WorkspaceIndex {
+    public static final WorkspaceIndex INSTANCE = new WorkspaceIndex(Path.of("JAIG/workspace.index"));
+
+    private static final int VERSION = 2;
+    // a folder (or a file) which was modified right before it was listed (or hashed)
+    // can be modified again with the same time
+    private static final long MODIFIED_TIME_PRECISION_MS = 2000;
+
+    private final Path indexFile;
+    private final Map<String, Folder> folders = new HashMap<>();
+    private boolean loaded;
+    private boolean changed;
+
+    private WatchService watchService;
+    private final Map<WatchKey, String> watchedFolders = new HashMap<>();
+
+    private static class Folder {
+        long modifiedTime;
+        long listedTime;
+        List<String> folders = new ArrayList<>();
+        List<FileEntry> files = new ArrayList<>();
+        // true if the folder is watched and there were no events since it was listed
+        boolean watched;
+    }
+
+    private static class FileEntry {
+        String name;
+        long size;
+        long modifiedTime;
+        String hash; // null if it was not calculated
+        long hashedTime;
+    }
+
+    public WorkspaceIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * @param path - file or folder
+     * @return all files of the folder and its subfolders, sorted by path
+     * (or the file itself if the path is a file)
+     */
+    public synchronized List<String> files(String path) {
+        String key = key(path);
+        List<String> result = new ArrayList<>();
+        if (key == null) return result;
+        Folder folder = folder(key);
+        if (folder != null) {
+            collectFiles(key, folder, result);
+            Collections.sort(result);
+        } else if (Files.isRegularFile(Paths.get(key))) {
+            result.add(key);
+        }
+        return result;
+    }
+
+    /**
+     * @return all subfolders of the folder (recursively), sorted by path
+     */
+    public synchronized List<String> folders(String path) {
+        String key = key(path);
+        List<String> result = new ArrayList<>();
+        if (key == null) return result;
+        Folder folder = folder(key);
+        if (folder != null) {
+            collectFolders(key, folder, result);
+            Collections.sort(result);
+        }
+        return result;
+    }
+
+    /**
+     * @return SHA-256 of the content of the file, it is calculated again if the size
+     * or the last modified time of the file is changed or if the file was modified right before it was hashed
+     */
+    public String hash(String path) throws IOException {
+        String key = key(path);
+        Path file = Paths.get(key == null ? path : key);
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        synchronized (this) {
+            FileEntry entry = fileEntry(key, file);
+            if (entry != null && entry.hash != null && entry.size == attributes.size()
+                    && entry.modifiedTime == attributes.lastModifiedTime().toMillis()
+                    && entry.hashedTime - entry.modifiedTime >= MODIFIED_TIME_PRECISION_MS) {
+                return entry.hash;
+            }
+        }
+        // the time is taken before the file is read: the changes made while it is read are not missed
+        long hashedTime = System.currentTimeMillis();
+        // the files are hashed outside the lock, so several threads can hash them at the same time
+        String hash = sha256(file);
+        synchronized (this) {
+            FileEntry entry = fileEntry(key, file);
+            if (entry != null) {
+                entry.size = attributes.size();
+                entry.modifiedTime = attributes.lastModifiedTime().toMillis();
+                entry.hash = hash;
+                entry.hashedTime = hashedTime;
+                changed = true;
+            }
+        }
+        return hash;
+    }
+
+    private FileEntry fileEntry(String key, Path file) {
+        if (key == null || file.getParent() == null) return null;
+        Folder folder = folder(folderKey(file.getParent()));
+        if (folder == null) return null;
+        String name = file.getFileName().toString();
+        return folder.files.stream().filter(f -> f.name.equals(name)).findFirst().orElse(null);
+    }
+
+    /**
+     * Starts watching the listed folders, so they are not checked again until they are changed
+     */
+    public synchronized void watch() {
+        if (watchService != null) return;
+        try {
+            watchService = Paths.get(".").getFileSystem().newWatchService();
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot watch the changes of files: " + e.getMessage());
+            return;
+        }
+        Thread watchThread = new Thread(this::processWatchEvents, "jaig-workspace-watch");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    private void processWatchEvents() {
+        try {
+            while (true) {
+                WatchKey watchKey = watchService.take();
+                synchronized (this) {
+                    String folderKey = watchedFolders.get(watchKey);
+                    for (WatchEvent<?> event : watchKey.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            folders.values().forEach(folder -> folder.watched = false);
+                        }
+                    }
+                    if (folderKey != null && folders.containsKey(folderKey)) {
+                        folders.get(folderKey).watched = false;
+                    }
+                    if (!watchKey.reset()) watchedFolders.remove(watchKey);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // the watching is stopped
+        }
+    }
+
+    /**
+     * @return the listing of the folder (listed again if it was changed) or null if it is not a folder
+     */
+    private Folder folder(String key) {
+        load();
+        Folder folder = folders.get(key);
+
+        Path path = Paths.get(key);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            if (folders.remove(key) != null) changed = true;
+            return null;
+        }
+        if (!attributes.isDirectory()) return null;
+
+        long modifiedTime = attributes.lastModifiedTime().toMillis();
+        // the events of WatchService come asynchronously (on macOS with a delay of seconds),
+        // so the modified time is always checked; watching only saves listing the folder again
+        // when it was modified right before it was listed
+        if (folder == null || folder.modifiedTime != modifiedTime
+                || (!folder.watched && folder.listedTime - modifiedTime < MODIFIED_TIME_PRECISION_MS)) {
+            // the folder is registered before it is listed, so no changes are missed
+            boolean watched = register(path, key);
+            Folder previous = folder;
+            folder = list(path, modifiedTime, previous);
+            folder.watched = watched;
+            if (previous != null) removeDeletedFolders(key, previous, folder);
+            folders.put(key, folder);
+            changed = true;
+        } else if (!folder.watched) {
+            folder.watched = register(path, key);
+        }
+        return folder;
+    }
+
+    // the listings of the deleted subfolders (and their subfolders) are removed from the index
+    private void removeDeletedFolders(String key, Folder previous, Folder folder) {
+        for (String name : previous.folders) {
+            if (folder.folders.contains(name)) continue;
+            String childKey = child(key, name);
+            folders.keySet().removeIf(k -> k.equals(childKey) || k.startsWith(childKey + "/"));
+        }
+    }
+
+    private boolean register(Path path, String key) {
+        if (watchService == null) return false;
+        try {
+            WatchKey watchKey = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watchedFolders.put(watchKey, key);
+            return true;
+        } catch (IOException e) {
+            // e.g. the limit of watched folders is reached: the folder is checked by its modified time
+            return false;
+        }
+    }
+
+    private static Folder list(Path path, long modifiedTime, Folder previous) {
+        Map<String, FileEntry> previousFiles = new HashMap<>();
+        if (previous != null) previous.files.forEach(f -> previousFiles.put(f.name, f));
+
+        Folder folder = new Folder();
+        folder.modifiedTime = modifiedTime;
+        folder.listedTime = System.currentTimeMillis();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+            for (Path child : children) {
+                BasicFileAttributes attributes = Files.readAttributes(child, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                // links are not followed, like in Files.walkFileTree: a link to a parent folder would repeat the tree
+                if (attributes.isSymbolicLink()) continue;
+                String name = child.getFileName().toString();
+                if (attributes.isDirectory()) {
+                    folder.folders.add(name);
+                } else if (attributes.isRegularFile()) {
+                    FileEntry file = new FileEntry();
+                    file.name = name;
+                    file.size = attributes.size();
+                    file.modifiedTime = attributes.lastModifiedTime().toMillis();
+                    // the hash of the unchanged file is kept
+                    FileEntry previousFile = previousFiles.get(name);
+                    if (previousFile != null && previousFile.size == file.size
+                            && previousFile.modifiedTime == file.modifiedTime) {
+                        file.hash = previousFile.hash;
+                        file.hashedTime = previousFile.hashedTime;
+                    }
+                    folder.files.add(file);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot read folder " + path + ": " + e.getMessage());
+        }
+        return folder;
+    }
+
+    private void collectFiles(String key, Folder folder, List<String> result) {
+        for (FileEntry file : folder.files) {
+            result.add(child(key, file.name));
+        }
+        for (String name : folder.folders) {
+            String childKey = child(key, name);
+            Folder child = folder(childKey);
+            if (child != null) collectFiles(childKey, child, result);
+        }
+    }
+
+    private void collectFolders(String key, Folder folder, List<String> result) {
+        for (String name : folder.folders) {
+            String childKey = child(key, name);
+            Folder child = folder(childKey);
+            if (child != null) {
+                result.add(childKey);
+                collectFolders(childKey, child, result);
+            }
+        }
+    }
+
+    private static String child(String key, String name) {
+        return key + "/" + name;
+    }
+
+    /**
+     * @return path relative to the content root, like ./src/main/java,
+     * or null if the path is outside the content root
+     */
+    static String key(String path) {
+        Path normalized = Paths.get(path);
+        if (normalized.isAbsolute()) {
+            Path root = Paths.get("").toAbsolutePath();
+            if (!normalized.startsWith(root)) return null;
+            normalized = root.relativize(normalized);
+        }
+        return folderKey(normalized);
+    }
+
+    private static String folderKey(Path path) {
+        String normalized = path.normalize().toString().replace(File.separator, "/");
+        if (normalized.startsWith("..")) return null;
+        return normalized.isEmpty() ? "." : "./" + normalized;
+    }
+
+    private static String sha256(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!GlobalConfig.INSTANCE.isWorkspaceIndex()) return;
+        // the index is saved when JAIG is finished (including System.exit), JAIG daemon saves it after every command
+        Runtime.getRuntime().addShutdownHook(new Thread(this::save, "jaig-workspace-index"));
+        if (!Files.exists(indexFile)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != VERSION) return;
+            int folderCount = in.readInt();
+            for (int i = 0; i < folderCount; i++) {
+                String key = in.readUTF();
+                Folder folder = new Folder();
+                folder.modifiedTime = in.readLong();
+                folder.listedTime = in.readLong();
+                int subfolderCount = in.readInt();
+                for (int j = 0; j < subfolderCount; j++) {
+                    folder.folders.add(in.readUTF());
+                }
+                int fileCount = in.readInt();
+                for (int j = 0; j < fileCount; j++) {
+                    FileEntry file = new FileEntry();
+                    file.name = in.readUTF();
+                    file.size = in.readLong();
+                    file.modifiedTime = in.readLong();
+                    String hash = in.readUTF();
+                    file.hash = hash.isEmpty() ? null : hash;
+                    file.hashedTime = in.readLong();
+                    folder.files.add(file);
+                }
+                folders.put(key, folder);
+            }
+        } catch (IOException e) {
+            // the index is created again
+            folders.clear();
+        }
+    }
+
+    /**
+     * Saves the index to JAIG/workspace.index if it was changed
+     */
+    public synchronized void save() {
+        if (!changed) return;
+        try {
+            Files.createDirectories(indexFile.getParent());
+            Path tempFile = Files.createTempFile(indexFile.getParent(), "workspace", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(VERSION);
+                out.writeInt(folders.size());
+                for (Map.Entry<String, Folder> entry : folders.entrySet()) {
+                    Folder folder = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(folder.modifiedTime);
+                    out.writeLong(folder.listedTime);
+                    out.writeInt(folder.folders.size());
+                    for (String name : folder.folders) {
+                        out.writeUTF(name);
+                    }
+                    out.writeInt(folder.files.size());
+                    for (FileEntry file : folder.files) {
+                        out.writeUTF(file.name);
+                        out.writeLong(file.size);
+                        out.writeLong(file.modifiedTime);
+                        out.writeUTF(file.hash == null ? "" : file.hash);
+                        out.writeLong(file.hashedTime);
+                    }
+                }
+            }
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            changed = false;
+        } catch (IOException e) {
+            System.out.println("WARNING: cannot save " + indexFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package app.jtutor.jaig.config;
 
+import app.jtutor.JAIG;
+import app.jtutor.jaig.JavaFileNameMatcher;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import org.yaml.snakeyaml.Yaml;
 
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
@@ -21,6 +24,8 @@ public class GlobalConfig extends Config {
     private String deploymentIdOrModel;
     private String promptsLibraryShortHint;
     private List<String> javaFileNameRegexps;
+    // javaFileNameRegexps compiled once for all responses
+    private JavaFileNameMatcher javaFileNameMatcher = new JavaFileNameMatcher(null);
     private boolean gptProxy;
 
     private Map<String, String> promptsLibrary;
@@ -32,16 +37,59 @@ public class GlobalConfig extends Config {
     // write results to this folder if we use #test
     private String testFolder = "src/test/java";
 
+    // how many prompts of a .batch are sent to AI at the same time
+    private int maxParallelPrompts = 1;
+
+    // reuse saved responses for the same requests (folder JAIG/cache)
+    private boolean responseCache;
+    // the least recently used responses are removed when the cache is bigger
+    private int responseCacheMaxSizeMb = 100;
+
+    // connection pool shared by all requests to AI
+    private int httpMaxConnections = 16;
+    // how long an idle connection is kept open for the next request
+    private int httpKeepAliveSeconds = 60;
+
+    // yes: the response is printed without colors, no: with colors,
+    // auto: without colors if the output is not a terminal
+    private String headless = "no";
+
+    // keep the index of the project files in JAIG/workspace.index between runs
+    private boolean workspaceIndex = true;
+
+    // parse the classes of the response while it is streamed
+    private boolean streamingParse = true;
+
+    // split the response by the brackets of the code instead of the line rules
+    private boolean astParse;
+
+    // rewrite only the parsed classes which are changed, the others keep their last modified time
+    private boolean incrementalParse;
+
+    // backups, -patched and -parsed-old folders are made by hard links instead of copying the files
+    private boolean copyOnWrite;
+
+    // the backups of src files are stored once in JAIG/snapshots for all prompts
+    private boolean snapshotStore = true;
+
+    // JAIG daemon applies JAIG.yaml for every command, it is parsed again only if it was changed
+    private static Map<String, Object> cachedYamlData;
+    private static long cachedYamlLastModified;
+
     public void parseYamlConfig() {
-        Yaml yaml = new Yaml();
-        InputStream inputStream = null;
-        try {
-            inputStream = new FileInputStream("JAIG/JAIG.yaml");
-        } catch (FileNotFoundException e) {
-            System.out.println("Configuration file JAIG.yaml is not found!");
-            System.exit(-1);
+        File configFile = new File("JAIG/JAIG.yaml");
+        Map<String, Object> yamlData = cachedYamlData;
+        if (yamlData == null || configFile.lastModified() != cachedYamlLastModified) {
+            Yaml yaml = new Yaml();
+            try (InputStream inputStream = new FileInputStream(configFile)) {
+                yamlData = yaml.load(inputStream);
+            } catch (IOException e) {
+                System.out.println("Configuration file JAIG.yaml is not found!");
+                JAIG.exit(-1);
+            }
+            cachedYamlData = yamlData;
+            cachedYamlLastModified = configFile.lastModified();
         }
-        Map<String, Object> yamlData = yaml.load(inputStream);
         setOpenAIApiKey(openAIApiKey = (String) yamlData.get("openAIApiKey"));
         setKey((String) yamlData.get("key"));
         setEndpoint((String) yamlData.get("endpoint"));
@@ -67,6 +115,20 @@ public class GlobalConfig extends Config {
         setCreateRollback(yamlData.containsKey("createRollback"));
         setJavaFileNameRegexps((List<String>) yamlData.get("javaFileNameRegexp"));
         setApplyRollback((Boolean) yamlData.getOrDefault("applyRollback", false));
+        setMaxParallelPrompts((Integer) yamlData.getOrDefault("maxParallelPrompts", 1));
+        setResponseCache((Boolean) yamlData.getOrDefault("responseCache", false));
+        setResponseCacheMaxSizeMb((Integer) yamlData.getOrDefault("responseCacheMaxSizeMb", 100));
+        setHttpMaxConnections((Integer) yamlData.getOrDefault("httpMaxConnections", 16));
+        setHttpKeepAliveSeconds((Integer) yamlData.getOrDefault("httpKeepAliveSeconds", 60));
+        setWorkspaceIndex((Boolean) yamlData.getOrDefault("workspaceIndex", true));
+        setStreamingParse((Boolean) yamlData.getOrDefault("streamingParse", true));
+        setAstParse((Boolean) yamlData.getOrDefault("astParse", false));
+        setIncrementalParse((Boolean) yamlData.getOrDefault("incrementalParse", false));
+        setCopyOnWrite((Boolean) yamlData.getOrDefault("copyOnWrite", false));
+        setSnapshotStore((Boolean) yamlData.getOrDefault("snapshotStore", true));
+        // yes/no are parsed as booleans, auto as a string
+        Object headlessValue = yamlData.getOrDefault("headless", false);
+        setHeadless(headlessValue instanceof Boolean b ? (b ? "yes" : "no") : headlessValue.toString());
 
         /*
         This is how YAML looks:
@@ -83,4 +145,17 @@ public class GlobalConfig extends Config {
         setMergePrompt((String) yamlData.get("mergePrompt"));
         setMergeIncompletePrompt((String) yamlData.get("mergeIncompletePrompt"));
     }
+
+    public void setJavaFileNameRegexps(List<String> javaFileNameRegexps) {
+        this.javaFileNameRegexps = javaFileNameRegexps;
+        this.javaFileNameMatcher = new JavaFileNameMatcher(javaFileNameRegexps);
+    }
+
+    /**
+     * @return true if the response should be printed without ANSI colors and loading animation
+     */
+    public boolean isHeadlessConsole() {
+        if ("auto".equals(headless)) return System.console() == null;
+        return "yes".equals(headless);
+    }
 }
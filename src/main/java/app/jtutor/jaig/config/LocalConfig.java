@@ -26,4 +26,11 @@ public class LocalConfig extends Config {
 
     private String packageName;
 
+    // should we send the request even if the response is cached
+    private boolean noCache;
+
+    // #merge, #merge-incomplete:, #patch or #norollback turn off the rollback for this and the next prompts
+    // (applied to GlobalConfig in PHASE 3, when the prompts are processed in their order)
+    private boolean disableRollback;
+
 }